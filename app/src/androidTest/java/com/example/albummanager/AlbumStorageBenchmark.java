@@ -0,0 +1,141 @@
+package com.example.albummanager;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures point-read latency while another thread bulk-inserts albums, once
+ * per storage profile. Results are written to logcat under the
+ * AlbumStorageBenchmark tag; run with
+ * ./gradlew connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=com.example.albummanager.AlbumStorageBenchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class AlbumStorageBenchmark {
+    private static final String TAG = "AlbumStorageBenchmark";
+    private static final int SEED_ROWS = 10_000;
+    private static final int ARTISTS = 500;
+    private static final int WRITE_BATCHES = 50;
+    private static final int ROWS_PER_BATCH = 1_000;
+    private static final int MAX_SAMPLES = 200_000;
+
+    @Test
+    public void readLatencyUnderWriteLoad_legacy() throws Exception {
+        run(StorageProfile.LEGACY);
+    }
+
+    @Test
+    public void readLatencyUnderWriteLoad_default() throws Exception {
+        run(StorageProfile.DEFAULT);
+    }
+
+    @Test
+    public void readLatencyUnderWriteLoad_durable() throws Exception {
+        run(StorageProfile.DURABLE);
+    }
+
+    private void run(StorageProfile profile) throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        String databaseName = "AlbumBenchmarkDB-" + profile.getName();
+        context.deleteDatabase(databaseName);
+        AlbumProvider.DatabaseHelper helper =
+                new AlbumProvider.DatabaseHelper(context, databaseName, profile);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            insertArtists(db);
+            insertBatch(db, SEED_ROWS);
+
+            AtomicBoolean writing = new AtomicBoolean(true);
+            long[] writeNanos = new long[1];
+            Thread writer = new Thread(() -> {
+                long start = System.nanoTime();
+                for (int i = 0; i < WRITE_BATCHES; i++) {
+                    insertBatch(db, ROWS_PER_BATCH);
+                }
+                writeNanos[0] = System.nanoTime() - start;
+                writing.set(false);
+            }, TAG + "-writer");
+
+            long[] samples = new long[MAX_SAMPLES];
+            int count = 0;
+            long id = 1;
+            writer.start();
+            while (writing.get() && count < MAX_SAMPLES) {
+                long start = System.nanoTime();
+                try (Cursor cursor = db.rawQuery(
+                        "SELECT id, artist, name FROM " + AlbumProvider.ALBUMS_VIEW_NAME
+                                + " WHERE id = ?",
+                        new String[]{String.valueOf(id)})) {
+                    cursor.moveToFirst();
+                }
+                samples[count++] = System.nanoTime() - start;
+                id = id % SEED_ROWS + 1;
+            }
+            writer.join();
+
+            Arrays.sort(samples, 0, count);
+            Log.i(TAG, profile.getName()
+                    + ": reads=" + count
+                    + " p50=" + micros(samples, count, 0.50)
+                    + "us p95=" + micros(samples, count, 0.95)
+                    + "us p99=" + micros(samples, count, 0.99)
+                    + "us max=" + (count > 0 ? samples[count - 1] / 1000 : 0)
+                    + "us, writes=" + (WRITE_BATCHES * ROWS_PER_BATCH)
+                    + " rows in " + writeNanos[0] / 1_000_000 + "ms");
+        } finally {
+            helper.close();
+            context.deleteDatabase(databaseName);
+        }
+    }
+
+    private static void insertArtists(SQLiteDatabase db) {
+        SQLiteStatement insert = db.compileStatement(AlbumProvider.INSERT_ARTIST);
+        db.beginTransactionNonExclusive();
+        try {
+            for (int i = 0; i < ARTISTS; i++) {
+                insert.bindString(1, "Artist " + i);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+
+    private static void insertBatch(SQLiteDatabase db, int rows) {
+        SQLiteStatement insert = db.compileStatement(AlbumProvider.INSERT_ALBUM);
+        db.beginTransactionNonExclusive();
+        try {
+            for (int i = 0; i < rows; i++) {
+                // artist IDs are 1..ARTISTS after insertArtists()
+                insert.bindLong(1, i % ARTISTS + 1);
+                insert.bindString(2, "Album " + i);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+
+    private static long micros(long[] sorted, int count, double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(count - 1, Math.round(percentile * (count - 1)));
+        return sorted[index] / 1000;
+    }
+}
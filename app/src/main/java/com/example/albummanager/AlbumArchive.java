@@ -0,0 +1,526 @@
+package com.example.albummanager;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import com.example.albummanager.model.Album;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming encoders and decoders for moving an album library between devices.
+ * Every format is written and read one album at a time through NIO channels,
+ * so memory use does not depend on the size of the library.
+ *
+ * The binary format is "ALBM", a version byte, then one tagged record per
+ * album: the ID as a zigzag varint delta from the previous ID, the artist as a
+ * reference into a dictionary of artists seen so far (or a literal that joins
+ * the dictionary), and the name as a length-prefixed UTF-8 string. A zero tag
+ * ends the archive, so a truncated stream is detected rather than imported.
+ */
+public final class AlbumArchive {
+    private static final byte[] MAGIC = {'A', 'L', 'B', 'M'};
+    private static final int VERSION = 1;
+    private static final int TAG_END = 0;
+    private static final int TAG_ALBUM = 1;
+    // Artists past this many distinct names are written as literals every time
+    private static final int MAX_DICTIONARY = 1 << 16;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public enum Format {
+        BINARY("binary", "application/octet-stream"),
+        CSV("csv", "text/csv"),
+        JSON("json", "application/json");
+
+        private final String parameter;
+        private final String mimeType;
+
+        Format(String parameter, String mimeType) {
+            this.parameter = parameter;
+            this.mimeType = mimeType;
+        }
+
+        // The value of the format query parameter on the export URI
+        public String getParameter() {
+            return parameter;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        /**
+         * @param parameter The format query parameter, or null for BINARY
+         */
+        public static Format fromParameter(String parameter) {
+            if (parameter == null) {
+                return BINARY;
+            }
+            for (Format format : values()) {
+                if (format.parameter.equals(parameter)) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unknown archive format: " + parameter);
+        }
+
+        public Writer newWriter(WritableByteChannel channel) throws IOException {
+            switch (this) {
+                case CSV:
+                    return new CsvWriter(channel);
+                case JSON:
+                    return new JsonArchiveWriter(channel);
+                default:
+                    return new BinaryWriter(channel);
+            }
+        }
+
+        public Reader newReader(ReadableByteChannel channel) throws IOException {
+            switch (this) {
+                case CSV:
+                    return new CsvReader(channel);
+                case JSON:
+                    return new JsonArchiveReader(channel);
+                default:
+                    return new BinaryReader(channel);
+            }
+        }
+    }
+
+    public interface Writer extends Closeable {
+        void write(long id, String artist, String name) throws IOException;
+
+        /**
+         * Write the end of the archive and flush; the channel is left open
+         */
+        void finish() throws IOException;
+    }
+
+    public interface Reader extends Closeable {
+        /**
+         * @return The next album, or null at the end of the archive
+         */
+        Album read() throws IOException;
+    }
+
+    private AlbumArchive() {
+    }
+
+    private static class BinaryWriter implements Writer {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final Map<String, Integer> artists = new HashMap<>();
+        private long previousId;
+
+        BinaryWriter(WritableByteChannel channel) {
+            this.channel = channel;
+            buffer.put(MAGIC).put((byte) VERSION);
+        }
+
+        @Override
+        public void write(long id, String artist, String name) throws IOException {
+            ensure(1 + 10 + 5);
+            buffer.put((byte) TAG_ALBUM);
+            long delta = id - previousId;
+            putVarint((delta << 1) ^ (delta >> 63));
+            previousId = id;
+
+            Integer index = artists.get(artist);
+            if (index != null) {
+                putVarint(index + 1);
+            } else {
+                putVarint(0);
+                putString(artist);
+                if (artists.size() < MAX_DICTIONARY) {
+                    artists.put(artist, artists.size());
+                }
+            }
+            ensure(5);
+            putString(name);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            ensure(1);
+            buffer.put((byte) TAG_END);
+            flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        private void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensure(5);
+            putVarint(bytes.length);
+            if (bytes.length > buffer.remaining()) {
+                flush();
+            }
+            if (bytes.length > buffer.capacity()) {
+                writeFully(ByteBuffer.wrap(bytes));
+            } else {
+                buffer.put(bytes);
+            }
+        }
+
+        private void putVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+        }
+
+        private void writeFully(ByteBuffer source) throws IOException {
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+        }
+    }
+
+    private static class BinaryReader implements Reader {
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final List<String> artists = new ArrayList<>();
+        private long previousId;
+        private boolean finished;
+
+        BinaryReader(ReadableByteChannel channel) throws IOException {
+            this.channel = channel;
+            buffer.flip();
+            for (byte expected : MAGIC) {
+                if (getByte() != expected) {
+                    throw new IOException("Not an album archive");
+                }
+            }
+            int version = getByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported album archive version: " + version);
+            }
+        }
+
+        @Override
+        public Album read() throws IOException {
+            if (finished) {
+                return null;
+            }
+            int tag = getByte();
+            if (tag == TAG_END) {
+                finished = true;
+                return null;
+            }
+            if (tag != TAG_ALBUM) {
+                throw new IOException("Corrupt album archive, unknown tag: " + tag);
+            }
+            long zigzag = getVarint();
+            long id = previousId + ((zigzag >>> 1) ^ -(zigzag & 1));
+            previousId = id;
+
+            String artist;
+            long reference = getVarint();
+            if (reference == 0) {
+                artist = getString();
+                if (artists.size() < MAX_DICTIONARY) {
+                    artists.add(artist);
+                }
+            } else if (reference <= artists.size()) {
+                artist = artists.get((int) reference - 1);
+            } else {
+                throw new IOException("Corrupt album archive, unknown artist: " + reference);
+            }
+            return new Album(id, artist, getString());
+        }
+
+        @Override
+        public void close() {
+            // the channel belongs to the caller
+        }
+
+        private String getString() throws IOException {
+            long length = getVarint();
+            if (length < 0 || length > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt album archive, string length: " + length);
+            }
+            byte[] bytes = new byte[(int) length];
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (!buffer.hasRemaining()) {
+                    fill();
+                }
+                int count = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.get(bytes, offset, count);
+                offset += count;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private long getVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = getByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Corrupt album archive, varint too long");
+        }
+
+        private int getByte() throws IOException {
+            if (!buffer.hasRemaining()) {
+                fill();
+            }
+            return buffer.get() & 0xFF;
+        }
+
+        private void fill() throws IOException {
+            buffer.clear();
+            int read;
+            do {
+                read = channel.read(buffer);
+            } while (read == 0);
+            buffer.flip();
+            if (read < 0) {
+                throw new EOFException("Truncated album archive");
+            }
+        }
+    }
+
+    private static class CsvWriter implements Writer {
+        private final BufferedWriter out;
+
+        CsvWriter(WritableByteChannel channel) throws IOException {
+            out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1),
+                    BUFFER_SIZE);
+            out.write("id,artist,name\r\n");
+        }
+
+        @Override
+        public void write(long id, String artist, String name) throws IOException {
+            out.write(Long.toString(id));
+            out.write(',');
+            writeField(artist);
+            out.write(',');
+            writeField(name);
+            out.write("\r\n");
+        }
+
+        @Override
+        public void finish() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+
+        private void writeField(String value) throws IOException {
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+            }
+            if (!quote) {
+                out.write(value);
+                return;
+            }
+            out.write('"');
+            out.write(value.replace("\"", "\"\""));
+            out.write('"');
+        }
+    }
+
+    private static class CsvReader implements Reader {
+        private final BufferedReader in;
+        private final StringBuilder field = new StringBuilder();
+        private final String[] fields = new String[3];
+
+        CsvReader(ReadableByteChannel channel) throws IOException {
+            in = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1),
+                    BUFFER_SIZE);
+            if (!readRecord()) {
+                throw new IOException("Empty album CSV");
+            }
+            if (!"id".equals(fields[0]) || !"artist".equals(fields[1]) || !"name".equals(fields[2])) {
+                throw new IOException("Album CSV must start with the header id,artist,name");
+            }
+        }
+
+        @Override
+        public Album read() throws IOException {
+            if (!readRecord()) {
+                return null;
+            }
+            try {
+                return new Album(Long.parseLong(fields[0]), fields[1], fields[2]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid album ID in CSV: " + fields[0]);
+            }
+        }
+
+        @Override
+        public void close() {
+            // the channel belongs to the caller
+        }
+
+        // Parse one RFC 4180 record into fields; false at end of input
+        private boolean readRecord() throws IOException {
+            int c = in.read();
+            while (c == '\r' || c == '\n') {
+                c = in.read();
+            }
+            if (c < 0) {
+                return false;
+            }
+            int count = 0;
+            while (true) {
+                field.setLength(0);
+                if (c == '"') {
+                    while (true) {
+                        c = in.read();
+                        if (c < 0) {
+                            throw new EOFException("Unterminated quoted field in album CSV");
+                        }
+                        if (c == '"') {
+                            c = in.read();
+                            if (c != '"') {
+                                break;
+                            }
+                        }
+                        field.append((char) c);
+                    }
+                } else {
+                    while (c >= 0 && c != ',' && c != '\r' && c != '\n') {
+                        field.append((char) c);
+                        c = in.read();
+                    }
+                }
+                if (count == fields.length) {
+                    throw new IOException("Too many fields in album CSV record");
+                }
+                fields[count++] = field.toString();
+                if (c == ',') {
+                    c = in.read();
+                    continue;
+                }
+                if (c == '\r' || c == '\n' || c < 0) {
+                    break;
+                }
+                throw new IOException("Unexpected character after quoted field in album CSV");
+            }
+            if (count != fields.length) {
+                throw new IOException("Expected 3 fields in album CSV record, found " + count);
+            }
+            return true;
+        }
+    }
+
+    private static class JsonArchiveWriter implements Writer {
+        private final BufferedWriter out;
+        private final JsonWriter json;
+
+        JsonArchiveWriter(WritableByteChannel channel) throws IOException {
+            out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1),
+                    BUFFER_SIZE);
+            json = new JsonWriter(out);
+            json.beginArray();
+        }
+
+        @Override
+        public void write(long id, String artist, String name) throws IOException {
+            json.beginObject();
+            json.name("id").value(id);
+            json.name("artist").value(artist);
+            json.name("name").value(name);
+            json.endObject();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            json.endArray();
+            json.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            json.flush();
+        }
+    }
+
+    private static class JsonArchiveReader implements Reader {
+        private final JsonReader json;
+
+        JsonArchiveReader(ReadableByteChannel channel) throws IOException {
+            json = new JsonReader(new BufferedReader(
+                    Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1), BUFFER_SIZE));
+            json.beginArray();
+        }
+
+        @Override
+        public Album read() throws IOException {
+            if (!json.hasNext()) {
+                json.endArray();
+                return null;
+            }
+            Album album = new Album();
+            json.beginObject();
+            while (json.hasNext()) {
+                String key = json.nextName();
+                if (json.peek() == JsonToken.NULL) {
+                    json.skipValue();
+                    continue;
+                }
+                switch (key) {
+                    case "id":
+                        album.setId(json.nextLong());
+                        break;
+                    case "artist":
+                        album.setArtist(json.nextString());
+                        break;
+                    case "name":
+                        album.setName(json.nextString());
+                        break;
+                    default:
+                        json.skipValue();
+                        break;
+                }
+            }
+            json.endObject();
+            return album;
+        }
+
+        @Override
+        public void close() {
+            // the channel belongs to the caller
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.albummanager;
+
+import android.util.LruCache;
+
+import com.example.albummanager.model.Album;
+
+/**
+ * Bounded, thread-safe LRU cache of albums keyed by ID. Albums are copied on
+ * the way in and out so callers can never mutate a cached entry.
+ */
+public class AlbumCache {
+    private final LruCache<Long, Album> albums;
+
+    // bumped on every invalidation and write so a load that raced with one is
+    // not cached; guarded by this, as are all changes to albums
+    private long generation;
+
+    public AlbumCache(int maxSize) {
+        this.albums = new LruCache<>(maxSize);
+    }
+
+    /**
+     * Get a copy of a cached album
+     * @param id The album ID
+     * @return The album, or null on a miss
+     */
+    public Album get(long id) {
+        Album album = albums.get(id);
+        return album != null ? copy(album) : null;
+    }
+
+    /**
+     * Cache an album just written to the provider and read back from it,
+     * unless the cache was invalidated since the read-back started. Counts as
+     * a write, so a read of the old row that started earlier cannot replace it.
+     * @param album The album as read back after the write
+     * @param readGeneration The value of generation() taken before the read-back
+     */
+    public synchronized void putWritten(Album album, long readGeneration) {
+        if (readGeneration == generation) {
+            generation++;
+            albums.put(album.getId(), copy(album));
+        }
+    }
+
+    /**
+     * Cache an album read from the provider, unless the cache was invalidated
+     * since the read started
+     * @param album The album that was read
+     * @param readGeneration The value of generation() taken before the read
+     */
+    public synchronized void putIfCurrent(Album album, long readGeneration) {
+        if (readGeneration == generation) {
+            albums.put(album.getId(), copy(album));
+        }
+    }
+
+    public synchronized long generation() {
+        return generation;
+    }
+
+    public synchronized void remove(long id) {
+        generation++;
+        albums.remove(id);
+    }
+
+    public synchronized void clear() {
+        generation++;
+        albums.evictAll();
+    }
+
+    public Stats getStats() {
+        return new Stats(albums.hitCount(), albums.missCount(), albums.evictionCount(),
+                albums.size(), albums.maxSize());
+    }
+
+    private static Album copy(Album album) {
+        Album copy = new Album(album.getId(), album.getArtist(), album.getName());
+        copy.setArtistId(album.getArtistId());
+        return copy;
+    }
+
+    public static class Stats {
+        public final int hits;
+        public final int misses;
+        public final int evictions;
+        public final int size;
+        public final int maxSize;
+
+        Stats(int hits, int misses, int evictions, int size, int maxSize) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.size = size;
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "hits=" + hits +
+                    ", misses=" + misses +
+                    ", evictions=" + evictions +
+                    ", size=" + size +
+                    ", maxSize=" + maxSize +
+                    '}';
+        }
+    }
+}
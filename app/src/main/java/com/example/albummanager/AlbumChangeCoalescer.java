@@ -0,0 +1,119 @@
+package com.example.albummanager;
+
+import android.os.Handler;
+
+import java.util.Arrays;
+
+/**
+ * Merges the album changes reported within a window into one call of a
+ * downstream listener, so a burst such as a sync client inserting a thousand
+ * rows costs one refresh instead of a thousand.
+ *
+ * The window opens with the first change after a flush and does not extend
+ * with later ones, so a steady stream of writes still refreshes once per
+ * window rather than never. Register it with AlbumManager.registerChangeListener;
+ * it may be called on any thread and delivers on the given handler.
+ */
+public class AlbumChangeCoalescer implements AlbumManager.AlbumChangeListener {
+    // Past this many distinct IDs a batch is reported as "any album may have changed"
+    static final int MAX_IDS = 1000;
+
+    private final Handler handler;
+    private final long windowMs;
+    private final AlbumManager.AlbumChangeListener downstream;
+    private final Runnable flush = this::flush;
+
+    // Pending batch, guarded by this
+    private boolean pending;
+    private int changes;
+    private long[] ids = new long[16];
+    private int idCount;
+    private boolean allIds;
+    private boolean selfChange;
+
+    /**
+     * @param handler The handler the merged changes are delivered on
+     * @param windowMs How long after the first change of a batch to deliver it
+     * @param downstream Receives one merged change per window
+     */
+    public AlbumChangeCoalescer(Handler handler, long windowMs,
+                                AlbumManager.AlbumChangeListener downstream) {
+        this.handler = handler;
+        this.windowMs = windowMs;
+        this.downstream = downstream;
+    }
+
+    @Override
+    public void onAlbumsChanged(int changes, long[] ids) {
+        onAlbumsChanged(changes, ids, false);
+    }
+
+    @Override
+    public synchronized void onAlbumsChanged(int changes, long[] ids, boolean selfChange) {
+        if (!pending) {
+            pending = true;
+            this.changes = changes;
+            this.selfChange = selfChange;
+            idCount = 0;
+            allIds = false;
+            handler.postDelayed(flush, windowMs);
+        } else {
+            // An unknown kind of change makes the whole batch unknown
+            this.changes = this.changes == 0 || changes == 0 ? 0 : this.changes | changes;
+            this.selfChange &= selfChange;
+        }
+        addIds(ids);
+    }
+
+    /**
+     * Drop any pending changes without delivering them
+     */
+    public synchronized void cancel() {
+        handler.removeCallbacks(flush);
+        pending = false;
+    }
+
+    private void addIds(long[] changed) {
+        if (allIds) {
+            return;
+        }
+        if (changed == null || idCount + changed.length > MAX_IDS) {
+            allIds = true;
+            return;
+        }
+        if (idCount + changed.length > ids.length) {
+            ids = Arrays.copyOf(ids, Math.max(ids.length * 2, idCount + changed.length));
+        }
+        System.arraycopy(changed, 0, ids, idCount, changed.length);
+        idCount += changed.length;
+    }
+
+    private void flush() {
+        int changes;
+        long[] merged;
+        boolean selfChange;
+        synchronized (this) {
+            if (!pending) {
+                return;
+            }
+            pending = false;
+            changes = this.changes;
+            selfChange = this.selfChange;
+            merged = allIds ? null : distinct(ids, idCount);
+        }
+        downstream.onAlbumsChanged(changes, merged, selfChange);
+    }
+
+    // An update followed by a delete of the same row is reported once
+    private static long[] distinct(long[] ids, int count) {
+        long[] sorted = Arrays.copyOf(ids, count);
+        Arrays.sort(sorted);
+        int unique = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[unique++] = sorted[i];
+            }
+        }
+        return unique == sorted.length ? sorted : Arrays.copyOf(sorted, unique);
+    }
+}
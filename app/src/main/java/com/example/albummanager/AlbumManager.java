@@ -1,23 +1,444 @@
 package com.example.albummanager;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.os.RemoteException;
 import android.util.Log;
 
+import com.example.albummanager.AlbumMetrics.Operation;
 import com.example.albummanager.model.Album;
+import com.example.albummanager.model.AlbumChange;
+import com.example.albummanager.model.AlbumCursorMapper;
+import com.example.albummanager.model.AlbumTable;
+import com.example.albummanager.model.Artist;
+import com.example.albummanager.model.ArtistSummary;
 
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class AlbumManager {
     private static final String TAG = "AlbumManager";
-    private static final Uri CONTENT_URI = Uri.parse("content://com.example.albummanager.provider/albums");
+    private static final String AUTHORITY = "com.example.albummanager.provider";
+    private static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/albums");
+    private static final Uri SEARCH_URI = Uri.parse("content://" + AUTHORITY + "/search");
+    private static final Uri ARTISTS_URI = Uri.parse("content://" + AUTHORITY + "/artists");
+    private static final Uri BY_ARTIST_URI = Uri.parse("content://" + AUTHORITY + "/albums/by_artist");
+    private static final Uri EXPORT_URI = Uri.parse("content://" + AUTHORITY + "/export");
+    private static final Uri CHANGES_URI = Uri.parse("content://" + AUTHORITY + "/changes");
+    private static final String QUERY_SINCE = "since";
+    private static final String EXTRA_OLDEST_SEQ = "oldest_seq";
+    private static final String EXTRA_LATEST_SEQ = "latest_seq";
+    private static final String QUERY_FORMAT = "format";
+    private static final String QUERY_TOKEN = "token";
+    private static final String[] ARTIST_PROJECTION = {"id", "name", "album_count"};
+    private static final String[] SUMMARY_PROJECTION = {"artist_id", "artist", "album_count",
+            "first_album_id", "first_album", "last_album_id", "last_album"};
+
+    // albums inserted per provider transaction by importAlbums
+    static final int IMPORT_BATCH_SIZE = 1000;
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+    // albums changed per provider transaction by deleteByArtist and renameArtist
+    static final int BULK_CHUNK_SIZE = 500;
+    // snapshot size from which findAlbums splits the scan across cores; below
+    // it handing the work to other threads costs more than the scan
+    static final int PARALLEL_FIND_THRESHOLD = 10_000;
+    private static final String QUERY_LIMIT = "limit";
+    private static final String QUERY_CONTINUED = "continued";
+
+    // kinds of change reported to an AlbumChangeListener, combined as a bitmask
+    public static final int CHANGE_INSERT = 1;
+    public static final int CHANGE_UPDATE = 1 << 1;
+    public static final int CHANGE_DELETE = 1 << 2;
+
+    /**
+     * Sort order and filter for queryAlbums() and getAlbums()
+     */
+    public static final class QueryOptions {
+        public enum Sort {
+            // order added
+            ID("id"),
+            ARTIST("artist COLLATE NOCASE, name COLLATE NOCASE, id"),
+            NAME("name COLLATE NOCASE, id");
+
+            final String orderBy;
+
+            Sort(String orderBy) {
+                this.orderBy = orderBy;
+            }
+        }
+
+        public static final QueryOptions DEFAULT = new QueryOptions(Sort.ID, null);
+
+        private final Sort sort;
+        private final String filter;
+
+        /**
+         * @param sort The order of the albums
+         * @param filter Text the artist or name must contain, ignoring case, or null for all albums
+         */
+        public QueryOptions(Sort sort, String filter) {
+            this.sort = sort;
+            this.filter = filter == null || filter.trim().isEmpty() ? null : filter.trim();
+        }
+
+        public Sort getSort() {
+            return sort;
+        }
+
+        public String getFilter() {
+            return filter;
+        }
+    }
+
+    /**
+     * Compound filter for findAlbums(): every clause must match, and a clause
+     * matches when its column matches any one of its terms. Terms ignore ASCII
+     * case, as SQLite's LIKE does, so both findAlbums() paths return the same
+     * albums. Filters are immutable; each clause method returns a new one.
+     */
+    public static final class AlbumFilter {
+        public enum Column {
+            ARTIST("artist"),
+            NAME("name");
+
+            final String name;
+
+            Column(String name) {
+                this.name = name;
+            }
+        }
+
+        public enum Match {
+            // the term appears anywhere in the column
+            CONTAINS,
+            // the column starts with the term
+            PREFIX,
+            // the column is the term
+            EQUALS
+        }
+
+        public static final AlbumFilter ALL = new AlbumFilter(new Clause[0]);
+
+        private static final class Clause {
+            final Column column;
+            final Match match;
+            final String[] terms;
+
+            Clause(Column column, Match match, String[] terms) {
+                this.column = column;
+                this.match = match;
+                this.terms = terms;
+            }
+
+            boolean matches(Album album) {
+                String value = column == Column.ARTIST ? album.getArtist() : album.getName();
+                for (String term : terms) {
+                    if (matches(value, term)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            private boolean matches(String value, String term) {
+                switch (match) {
+                    case PREFIX:
+                        return regionMatchesIgnoreAsciiCase(value, 0, term);
+                    case EQUALS:
+                        return value.length() == term.length()
+                                && regionMatchesIgnoreAsciiCase(value, 0, term);
+                    default:
+                        for (int i = 0; i <= value.length() - term.length(); i++) {
+                            if (regionMatchesIgnoreAsciiCase(value, i, term)) {
+                                return true;
+                            }
+                        }
+                        return false;
+                }
+            }
+
+            String selection() {
+                StringBuilder selection = new StringBuilder("(");
+                for (int i = 0; i < terms.length; i++) {
+                    if (i > 0) {
+                        selection.append(" OR ");
+                    }
+                    selection.append(column.name).append(" LIKE ? ESCAPE '\\'");
+                }
+                return selection.append(')').toString();
+            }
+
+            void addSelectionArgs(List<String> args) {
+                for (String term : terms) {
+                    String escaped = escapeLike(term);
+                    switch (match) {
+                        case PREFIX:
+                            args.add(escaped + "%");
+                            break;
+                        case EQUALS:
+                            args.add(escaped);
+                            break;
+                        default:
+                            args.add("%" + escaped + "%");
+                    }
+                }
+            }
+        }
+
+        private final Clause[] clauses;
+
+        private AlbumFilter(Clause[] clauses) {
+            this.clauses = clauses;
+        }
+
+        // Require the artist to match one of the terms
+        public AlbumFilter artist(Match match, String... terms) {
+            return and(Column.ARTIST, match, terms);
+        }
+
+        // Require the album name to match one of the terms
+        public AlbumFilter name(Match match, String... terms) {
+            return and(Column.NAME, match, terms);
+        }
+
+        public AlbumFilter and(Column column, Match match, String... terms) {
+            if (terms.length == 0) {
+                throw new IllegalArgumentException("A clause needs at least one term");
+            }
+            Clause[] more = Arrays.copyOf(clauses, clauses.length + 1);
+            more[clauses.length] = new Clause(column, match, terms.clone());
+            return new AlbumFilter(more);
+        }
+
+        public boolean matches(Album album) {
+            for (Clause clause : clauses) {
+                if (!clause.matches(album)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // The same filter as a selection over the albums view, or null for ALL
+        String selection() {
+            if (clauses.length == 0) {
+                return null;
+            }
+            StringBuilder selection = new StringBuilder();
+            for (Clause clause : clauses) {
+                if (selection.length() > 0) {
+                    selection.append(" AND ");
+                }
+                selection.append(clause.selection());
+            }
+            return selection.toString();
+        }
+
+        String[] selectionArgs() {
+            List<String> args = new ArrayList<>();
+            for (Clause clause : clauses) {
+                clause.addSelectionArgs(args);
+            }
+            return args.isEmpty() ? null : args.toArray(new String[0]);
+        }
+
+        // String.regionMatches(true, ...) also folds non-ASCII letters, which LIKE does not
+        private static boolean regionMatchesIgnoreAsciiCase(String value, int offset, String term) {
+            if (offset + term.length() > value.length()) {
+                return false;
+            }
+            for (int i = 0; i < term.length(); i++) {
+                char a = value.charAt(offset + i);
+                char b = term.charAt(i);
+                if (a != b && toLowerAscii(a) != toLowerAscii(b)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static char toLowerAscii(char c) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+    }
+
+    /**
+     * The albums changed after a sequence number of the provider's change
+     * log, as returned by getChangesSince()
+     */
+    public static final class ChangeSet {
+        private final List<AlbumChange> changes;
+        private final long latestSeq;
+        private final boolean complete;
+
+        ChangeSet(List<AlbumChange> changes, long latestSeq, boolean complete) {
+            this.changes = changes;
+            this.latestSeq = latestSeq;
+            this.complete = complete;
+        }
+
+        // One entry per changed album, in the order of their latest changes
+        public List<AlbumChange> getChanges() {
+            return changes;
+        }
+
+        // The sequence number to pass to the next getChangesSince() call
+        public long getLatestSeq() {
+            return latestSeq;
+        }
+
+        /**
+         * False if some changes after the requested sequence number are no
+         * longer in the log, because they were pruned or the database was
+         * replaced. The caller must then reload every album, and can continue
+         * from getLatestSeq() afterwards.
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+    }
+
+    /**
+     * Receives the progress of deleteByArtist and renameArtist after each
+     * chunk, on the thread running the operation
+     */
+    public interface BulkProgressListener {
+        /**
+         * @param done Albums changed so far
+         * @param total Albums the artist had when the operation started, or
+         * done if more have been added since
+         */
+        void onProgress(int done, int total);
+    }
+
+    public interface AlbumChangeListener {
+        /**
+         * Called when albums change in the provider
+         * @param changes Bitmask of CHANGE_INSERT, CHANGE_UPDATE and CHANGE_DELETE, or 0 if unknown
+         * @param ids IDs of the changed albums, or null if any album may have changed
+         */
+        void onAlbumsChanged(int changes, long[] ids);
+
+        /**
+         * Called by AlbumManager in place of onAlbumsChanged(int, long[]);
+         * override it to tell writes made through the AlbumManager the listener
+         * is registered with from writes made by anyone else
+         * @param selfChange True if every change was written through that AlbumManager
+         */
+        default void onAlbumsChanged(int changes, long[] ids, boolean selfChange) {
+            onAlbumsChanged(changes, ids);
+        }
+    }
+
+    // Distinguishes the AlbumManagers in a process
+    private static final AtomicInteger instances = new AtomicInteger();
+
     private final ContentResolver contentResolver;
+    // Prefix of the token on every write URI of this AlbumManager; the provider
+    // echoes the token on the notifications of that write
+    private final String origin = Process.myPid() + "-" + instances.incrementAndGet() + ".";
+    private final AtomicLong writes = new AtomicLong();
+    private final Map<AlbumChangeListener, ContentObserver> changeObservers = new HashMap<>();
+    private final AlbumCache cache;
+    private final AlbumChangeListener cacheInvalidator;
+    // Serializes addAlbum and updateAlbum with their cache write-through
+    private final Object writeThroughLock = new Object();
 
     public AlbumManager(ContentResolver contentResolver) {
+        this(contentResolver, 0);
+    }
+
+    /**
+     * Create an AlbumManager that caches albums by ID. Entries are only ever
+     * rows read from the provider: add and update write through by reading the
+     * row back, with the artist ID the provider assigned, and delete removes
+     * it. Changes made by other clients are evicted on their notifications, so
+     * call close() when done with it.
+     * @param contentResolver The resolver used to reach AlbumProvider
+     * @param cacheSize The maximum number of cached albums, or 0 for no cache
+     */
+    public AlbumManager(ContentResolver contentResolver, int cacheSize) {
         this.contentResolver = contentResolver;
+        if (cacheSize > 0) {
+            cache = new AlbumCache(cacheSize);
+            cacheInvalidator = new AlbumChangeListener() {
+                @Override
+                public void onAlbumsChanged(int changes, long[] ids) {
+                    onAlbumsChanged(changes, ids, false);
+                }
+
+                @Override
+                public void onAlbumsChanged(int changes, long[] ids, boolean selfChange) {
+                    if (selfChange) {
+                        // This manager's writes already updated the cache
+                        return;
+                    }
+                    if (ids == null) {
+                        cache.clear();
+                    } else if (changes != CHANGE_INSERT) {
+                        // New IDs are never cached before their insert, so only
+                        // updates, deletes and unknown changes can leave stale entries
+                        for (long id : ids) {
+                            cache.remove(id);
+                        }
+                    }
+                }
+            };
+            registerChangeListener(cacheInvalidator, null);
+        } else {
+            cache = null;
+            cacheInvalidator = null;
+        }
+    }
+
+    /**
+     * Stop listening for provider changes and drop the cache
+     */
+    public void close() {
+        if (cache != null) {
+            unregisterChangeListener(cacheInvalidator);
+            cache.clear();
+        }
+    }
+
+    /**
+     * Get the album cache counters
+     * @return Hit, miss and eviction counts, or null if caching is disabled
+     */
+    public AlbumCache.Stats getCacheStats() {
+        return cache != null ? cache.getStats() : null;
     }
 
     /**
@@ -27,14 +448,145 @@ public class AlbumManager {
      * @return The ID of the newly created album, or -1 if failed
      */
     public long addAlbum(String artist, String name) {
-        Log.d(TAG, "Adding album: " + artist + " - " + name);
-        ContentValues values = new ContentValues();
-        values.put("artist", artist);
-        values.put("name", name);
-        Uri result = contentResolver.insert(CONTENT_URI, values);
-        long id = result != null ? Long.parseLong(result.getLastPathSegment()) : -1;
-        Log.d(TAG, "Added album with ID: " + id);
-        return id;
+        long start = AlbumMetrics.begin(Operation.MANAGER_ADD);
+        long id = -1;
+        try {
+            ContentValues values = new ContentValues();
+            values.put("artist", artist);
+            values.put("name", name);
+            if (cache == null) {
+                id = insertAlbum(values);
+                return id;
+            }
+            synchronized (writeThroughLock) {
+                id = insertAlbum(values);
+                if (id > 0) {
+                    cacheWrittenAlbum(id);
+                }
+            }
+            return id;
+        } finally {
+            AlbumMetrics.end(Operation.MANAGER_ADD, start, id > 0 ? 1 : 0);
+        }
+    }
+
+    /**
+     * Add many albums in a single provider transaction
+     * @param albums The albums to add; their IDs are ignored
+     * @return The number of albums inserted
+     */
+    public int addAlbums(List<Album> albums) {
+        long start = AlbumMetrics.begin(Operation.MANAGER_ADD_BATCH);
+        int inserted = 0;
+        try {
+            ContentValues[] values = new ContentValues[albums.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = albums.get(i).toContentValues();
+            }
+            inserted = contentResolver.bulkInsert(writeUri(CONTENT_URI), values);
+            return inserted;
+        } finally {
+            AlbumMetrics.end(Operation.MANAGER_ADD_BATCH, start, inserted);
+        }
+    }
+
+    /**
+     * Apply a batch of insert, update and delete operations atomically
+     * @param operations The operations to apply, targeting the albums URI
+     * @return The result of each operation, or null if the batch failed
+     */
+    public ContentProviderResult[] applyOperations(ArrayList<ContentProviderOperation> operations) {
+        long start = AlbumMetrics.begin(Operation.MANAGER_APPLY);
+        try {
+            return contentResolver.applyBatch(AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(TAG, "Error applying operations: " + e.getMessage());
+            return null;
+        } finally {
+            AlbumMetrics.end(Operation.MANAGER_APPLY, start, operations.size());
+        }
+    }
+
+    /**
+     * Stream every album to an output stream, e.g. a file picked with
+     * ACTION_CREATE_DOCUMENT. The provider writes the archive into a pipe as it
+     * reads the table, so memory use does not grow with the library.
+     * @param out The destination; it is flushed but not closed
+     * @param format The archive format to write
+     * @return The number of bytes written
+     * @throws IOException If out could not be written, or the provider failed
+     * part way, in which case out holds a truncated archive
+     */
+    public long exportAlbums(OutputStream out, AlbumArchive.Format format) throws IOException {
+        long start = AlbumMetrics.begin(Operation.MANAGER_EXPORT);
+        long bytes = 0;
+        try {
+            Uri uri = EXPORT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_FORMAT, format.getParameter())
+                    .build();
+            ParcelFileDescriptor pipe = contentResolver.openFileDescriptor(uri, "r");
+            if (pipe == null) {
+                throw new FileNotFoundException("Could not open " + uri);
+            }
+            try {
+                // Neither channel is closed: the pipe is closed below and the
+                // caller owns the stream
+                ReadableByteChannel source = new FileInputStream(pipe.getFileDescriptor()).getChannel();
+                WritableByteChannel target = Channels.newChannel(out);
+                ByteBuffer buffer = ByteBuffer.allocate(TRANSFER_BUFFER_SIZE);
+                while (source.read(buffer) >= 0) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        bytes += target.write(buffer);
+                    }
+                    buffer.clear();
+                }
+                out.flush();
+                // The end of the stream is only the end of the export if the
+                // provider closed the pipe without an error
+                pipe.checkError();
+            } finally {
+                pipe.close();
+            }
+            return bytes;
+        } finally {
+            AlbumMetrics.end(Operation.MANAGER_EXPORT, start, 0);
+        }
+    }
+
+    /**
+     * Add every album in an archive written by exportAlbums(). Albums are
+     * decoded as the stream is read and inserted IMPORT_BATCH_SIZE at a time,
+     * each batch in one provider transaction, so an import that fails part way
+     * keeps the batches before the failure. The imported albums get new IDs.
+     * @param in The archive; it is not closed
+     * @param format The format the archive was written in
+     * @return The number of albums inserted
+     */
+    public int importAlbums(InputStream in, AlbumArchive.Format format) throws IOException {
+        long start = AlbumMetrics.begin(Operation.MANAGER_IMPORT);
+        int read = 0;
+        int inserted = 0;
+        try {
+            AlbumArchive.Reader reader = format.newReader(Channels.newChannel(in));
+            ContentValues[] batch = new ContentValues[IMPORT_BATCH_SIZE];
+            int size = 0;
+            Album album;
+            while ((album = reader.read()) != null) {
+                read++;
+                batch[size++] = album.toContentValues();
+                if (size == batch.length) {
+                    inserted += contentResolver.bulkInsert(writeUri(CONTENT_URI), batch);
+                    size = 0;
+                }
+            }
+            if (size > 0) {
+                inserted += contentResolver.bulkInsert(writeUri(CONTENT_URI), Arrays.copyOf(batch, size));
+            }
+            return inserted;
+        } finally {
+            AlbumMetrics.end(Operation.MANAGER_IMPORT, start, read, inserted);
+        }
     }
 
     /**
@@ -42,20 +594,207 @@ public class AlbumManager {
      * @return List of albums, or empty list if none found
      */
     public List<Album> getAllAlbums() {
-        Log.d(TAG, "Getting all albums");
-        List<Album> albums = new ArrayList<>();
-        Cursor cursor = contentResolver.query(CONTENT_URI, null, null, null, null);
+        long start = AlbumMetrics.begin(Operation.MANAGER_GET_ALL);
+        List<Album> albums = null;
+        try {
+            albums = readAlbums(contentResolver.query(CONTENT_URI,
+                    AlbumCursorMapper.PROJECTION, null, null, null));
+            return albums;
+        } finally {
+            AlbumMetrics.end(Operation.MANAGER_GET_ALL, start, albums != null ? albums.size() : 0);
+        }
+    }
+
+    /**
+     * Query albums in the given order and filter, leaving the rows in the
+     * returned cursor rather than copying them into a list. The cursor holds
+     * one window of rows at a time, so memory does not grow with the result.
+     * @param options The sort order and filter
+     * @return A cursor over the AlbumCursorMapper.PROJECTION columns, or null
+     * if the provider is unavailable; the caller must close it
+     */
+    public Cursor queryAlbums(QueryOptions options) {
+        long start = AlbumMetrics.begin(Operation.MANAGER_QUERY);
+        try {
+            return queryCursor(options);
+        } finally {
+            AlbumMetrics.end(Operation.MANAGER_QUERY, start, 0);
+        }
+    }
+
+    /**
+     * Get albums in the given order and filter
+     * @param options The sort order and filter
+     * @return List of albums, or empty list if none match
+     */
+    public List<Album> getAlbums(QueryOptions options) {
+        long start = AlbumMetrics.begin(Operation.MANAGER_GET_ALL);
+        List<Album> albums = null;
+        try {
+            albums = readAlbums(queryCursor(options));
+            return albums;
+        } finally {
+            AlbumMetrics.end(Operation.MANAGER_GET_ALL, start, albums != null ? albums.size() : 0);
+        }
+    }
+
+    /**
+     * Get albums in the given order and filter as a columnar AlbumTable, read
+     * straight from the cursor without creating an Album per row. Prefer it
+     * to getAlbums() for scans and sorts over large libraries.
+     * @param options The sort order and filter
+     * @return The albums in the requested order, or an empty table if none match
+     */
+    public AlbumTable getAlbumTable(QueryOptions options) {
+        long start = AlbumMetrics.begin(Operation.MANAGER_GET_TABLE);
+        AlbumTable table = AlbumTable.EMPTY;
+        try {
+            Cursor cursor = queryCursor(options);
+            if (cursor != null) {
+                try {
+                    table = AlbumTable.fromCursor(cursor);
+                } finally {
+                    cursor.close();
+                }
+            }
+            return table;
+        } finally {
+            AlbumMetrics.end(Operation.MANAGER_GET_TABLE, start, table.size());
+        }
+    }
+
+    private Cursor queryCursor(QueryOptions options) {
+        String selection = null;
+        String[] selectionArgs = null;
+        if (options.getFilter() != null) {
+            String contains = "%" + escapeLike(options.getFilter()) + "%";
+            selection = "artist LIKE ? ESCAPE '\\' OR name LIKE ? ESCAPE '\\'";
+            selectionArgs = new String[]{contains, contains};
+        }
+        return contentResolver.query(CONTENT_URI, AlbumCursorMapper.PROJECTION,
+                selection, selectionArgs, options.getSort().orderBy);
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    /**
+     * Visit every album without building a list. The same Album instance is
+     * refilled for each row, so the visitor must copy anything it keeps.
+     * @param visitor Called once per album, in ID order
+     * @return The number of albums visited
+     */
+    public int forEachAlbum(Consumer<Album> visitor) {
+        int count = 0;
+        Cursor cursor = contentResolver.query(CONTENT_URI, AlbumCursorMapper.PROJECTION,
+                null, null, null);
         if (cursor != null) {
+            try {
+                AlbumCursorMapper mapper = new AlbumCursorMapper(cursor);
+                Album album = new Album();
+                while (cursor.moveToNext()) {
+                    visitor.accept(mapper.fill(album));
+                    count++;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Read every row of a cursor into a list and close it
+     * @param cursor The cursor to read, may be null
+     * @return List of albums, or empty list if the cursor is null or empty
+     */
+    private static List<Album> readAlbums(Cursor cursor) {
+        if (cursor == null) {
+            return new ArrayList<>();
+        }
+        try {
+            List<Album> albums = new ArrayList<>(cursor.getCount());
+            AlbumCursorMapper mapper = new AlbumCursorMapper(cursor);
             while (cursor.moveToNext()) {
-                long id = cursor.getLong(cursor.getColumnIndex("id"));
-                String artist = cursor.getString(cursor.getColumnIndex("artist"));
-                String name = cursor.getString(cursor.getColumnIndex("name"));
-                albums.add(new Album(id, artist, name));
+                albums.add(mapper.map());
             }
+            return albums;
+        } finally {
             cursor.close();
         }
-        Log.d(TAG, "Retrieved " + albums.size() + " albums");
-        return albums;
+    }
+
+    /**
+     * Get one page of albums in ID order using keyset pagination
+     * @param afterId Only albums with an ID greater than this are returned; use 0 for the first page
+     * @param limit The maximum number of albums to return
+     * @return List of albums, or empty list if there are no more
+     */
+    public List<Album> getAlbumsPage(long afterId, int limit) {
+        long start = AlbumMetrics.begin(Operation.MANAGER_GET_PAGE);
+        List<Album> albums = null;
+        try {
+            Uri uri = CONTENT_URI.buildUpon()
+                    .appendQueryParameter("afterId", String.valueOf(afterId))
+                    .appendQueryParameter("limit", String.valueOf(limit))
+                    .build();
+            albums = readAlbums(contentResolver.query(uri, AlbumCursorMapper.PROJECTION,
+                    null, null, null));
+            return albums;
+        } finally {
+            AlbumMetrics.end(Operation.MANAGER_GET_PAGE, start, albums != null ? albums.size() : 0);
+        }
+    }
+
+    /**
+     * Iterate over all albums in ID order, holding only one page in memory at a time
+     * @param pageSize The number of albums fetched per provider query
+     * @return An iterable that pages through the albums lazily
+     */
+    public Iterable<Album> iterateAlbums(int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        return () -> new AlbumPageIterator(pageSize);
+    }
+
+    private class AlbumPageIterator implements Iterator<Album> {
+        private final int pageSize;
+        private List<Album> page;
+        private int position;
+        private long lastId;
+        private boolean exhausted;
+
+        AlbumPageIterator(int pageSize) {
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (page != null && position < page.size()) {
+                return true;
+            }
+            if (exhausted) {
+                return false;
+            }
+            page = getAlbumsPage(lastId, pageSize);
+            position = 0;
+            // A short page means the table has no rows beyond it
+            exhausted = page.size() < pageSize;
+            if (!page.isEmpty()) {
+                lastId = page.get(page.size() - 1).getId();
+            }
+            return !page.isEmpty();
+        }
+
+        @Override
+        public Album next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.get(position++);
+        }
     }
 
     /**
@@ -64,41 +803,102 @@ public class AlbumManager {
      * @return The album if found, null otherwise
      */
     public Album getAlbumById(long id) {
-        Log.d(TAG, "Getting album by ID: " + id);
-        Cursor cursor = null;
+        long generation = 0;
+        if (cache != null) {
+            Album cached = cache.get(id);
+            if (cached != null) {
+                return cached;
+            }
+            generation = cache.generation();
+        }
+        long start = AlbumMetrics.begin(Operation.MANAGER_GET_BY_ID);
+        int rows = 0;
         try {
-            String selection = "id=?";
-            String[] selectionArgs = new String[]{String.valueOf(id)};
-            cursor = contentResolver.query(CONTENT_URI, null, selection, selectionArgs, null);
-            
-            if (cursor != null && cursor.moveToFirst()) {
-                return Album.fromCursor(cursor);
+            Album album = queryAlbum(id);
+            if (album != null) {
+                rows = 1;
+                if (cache != null) {
+                    cache.putIfCurrent(album, generation);
+                }
+                return album;
             }
         } catch (Exception e) {
             Log.e(TAG, "Error getting album by ID: " + e.getMessage());
         } finally {
-            if (cursor != null && !cursor.isClosed()) {
-                cursor.close();
-            }
+            AlbumMetrics.end(Operation.MANAGER_GET_BY_ID, start, rows);
         }
         return null;
     }
 
+    // One row from the albums/<id> fast path, or null if there is none
+    private Album queryAlbum(long id) {
+        Cursor cursor = contentResolver.query(ContentUris.withAppendedId(CONTENT_URI, id),
+                AlbumCursorMapper.PROJECTION, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? Album.fromCursor(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long insertAlbum(ContentValues values) {
+        Uri result = contentResolver.insert(writeUri(CONTENT_URI), values);
+        return result != null ? Long.parseLong(result.getLastPathSegment()) : -1;
+    }
+
+    /**
+     * Write-through for addAlbum and updateAlbum: cache the row as the provider
+     * stored it rather than the caller's values, which lack the artist ID the
+     * provider assigned. Called under writeThroughLock, so the write and its
+     * read-back are not interleaved with another write of this manager, whose
+     * own notifications the cache ignores.
+     */
+    private void cacheWrittenAlbum(long id) {
+        long generation = cache.generation();
+        try {
+            Album album = queryAlbum(id);
+            if (album != null) {
+                cache.putWritten(album, generation);
+            } else {
+                cache.remove(id);
+            }
+        } catch (RuntimeException e) {
+            // The write succeeded; only the cache entry is lost
+            Log.w(TAG, "Error reading back album " + id, e);
+            cache.remove(id);
+        }
+    }
+
     /**
      * Update an existing album
      * @param album The album to update
      * @return true if successful, false otherwise
      */
     public boolean updateAlbum(Album album) {
-        Log.d(TAG, "Updating album: " + album);
-        ContentValues values = new ContentValues();
-        values.put("artist", album.getArtist());
-        values.put("name", album.getName());
-        String selection = "id=?";
-        String[] selectionArgs = new String[]{String.valueOf(album.getId())};
-        int updated = contentResolver.update(CONTENT_URI, values, selection, selectionArgs);
-        Log.d(TAG, "Update result: " + (updated > 0));
-        return updated > 0;
+        long start = AlbumMetrics.begin(Operation.MANAGER_UPDATE);
+        int updated = 0;
+        try {
+            ContentValues values = new ContentValues();
+            values.put("artist", album.getArtist());
+            values.put("name", album.getName());
+            Uri uri = writeUri(ContentUris.withAppendedId(CONTENT_URI, album.getId()));
+            if (cache == null) {
+                updated = contentResolver.update(uri, values, null, null);
+                return updated > 0;
+            }
+            synchronized (writeThroughLock) {
+                updated = contentResolver.update(uri, values, null, null);
+                if (updated > 0) {
+                    cacheWrittenAlbum(album.getId());
+                }
+            }
+            return updated > 0;
+        } finally {
+            AlbumMetrics.end(Operation.MANAGER_UPDATE, start, updated);
+        }
     }
 
     /**
@@ -107,12 +907,99 @@ public class AlbumManager {
      * @return true if successful, false otherwise
      */
     public boolean deleteAlbum(long id) {
-        Log.d(TAG, "Deleting album with ID: " + id);
-        String selection = "id=?";
-        String[] selectionArgs = new String[]{String.valueOf(id)};
-        int deleted = contentResolver.delete(CONTENT_URI, selection, selectionArgs);
-        Log.d(TAG, "Delete result: " + (deleted > 0));
-        return deleted > 0;
+        long start = AlbumMetrics.begin(Operation.MANAGER_DELETE);
+        int deleted = 0;
+        try {
+            deleted = contentResolver.delete(
+                    writeUri(ContentUris.withAppendedId(CONTENT_URI, id)), null, null);
+            if (cache != null) {
+                cache.remove(id);
+            }
+            return deleted > 0;
+        } finally {
+            AlbumMetrics.end(Operation.MANAGER_DELETE, start, deleted);
+        }
+    }
+
+    /**
+     * Delete every album of an artist. Runs as a series of provider
+     * transactions of BULK_CHUNK_SIZE albums each, so readers and other writers
+     * are held up for one chunk at a time rather than for the whole catalog.
+     * Change listeners are notified once, when the last chunk is done.
+     * @param artistId The artist ID, as returned by getArtists() or Album.getArtistId()
+     * @param progress Told after each chunk, or null
+     * @return The number of albums deleted
+     */
+    public int deleteByArtist(long artistId, BulkProgressListener progress) {
+        return changeArtistAlbums(Operation.MANAGER_DELETE_BY_ARTIST, artistId, null, progress);
+    }
+
+    /**
+     * Move every album of an artist to the artist with the new name, which is
+     * created if needed; renaming to an existing artist merges the two
+     * catalogs. Chunked and notified like deleteByArtist.
+     * @param artistId The artist ID, as returned by getArtists() or Album.getArtistId()
+     * @param newName The new artist name
+     * @param progress Told after each chunk, or null
+     * @return The number of albums moved
+     */
+    public int renameArtist(long artistId, String newName, BulkProgressListener progress) {
+        ContentValues values = new ContentValues();
+        values.put("artist", newName);
+        return changeArtistAlbums(Operation.MANAGER_RENAME_ARTIST, artistId, values, progress);
+    }
+
+    private int changeArtistAlbums(Operation operation, long artistId, ContentValues values,
+                                   BulkProgressListener progress) {
+        long start = AlbumMetrics.begin(operation);
+        int done = 0;
+        try {
+            int total = countAlbumsOf(artistId);
+            Uri chunk = ARTISTS_URI.buildUpon()
+                    .appendPath(Long.toString(artistId))
+                    .appendPath("albums")
+                    .appendQueryParameter(QUERY_LIMIT, Integer.toString(BULK_CHUNK_SIZE))
+                    .build();
+            int count;
+            do {
+                // Each call is its own transaction, so other writers get the
+                // database between chunks
+                Uri uri = done > 0
+                        ? chunk.buildUpon().appendQueryParameter(QUERY_CONTINUED, "true").build()
+                        : chunk;
+                count = values == null
+                        ? contentResolver.delete(writeUri(uri), null, null)
+                        : contentResolver.update(writeUri(uri), values, null, null);
+                done += count;
+                if (progress != null) {
+                    progress.onProgress(done, Math.max(total, done));
+                }
+            } while (count == BULK_CHUNK_SIZE);
+            if (cache != null && done > 0) {
+                cache.clear();
+            }
+            return done;
+        } finally {
+            AlbumMetrics.end(operation, start, done);
+        }
+    }
+
+    /**
+     * Count the albums of an artist
+     * @param artistId The artist's ID
+     * @return The number of albums, or 0 if the artist has none or does not exist
+     */
+    public int countAlbumsOf(long artistId) {
+        Cursor cursor = contentResolver.query(ARTISTS_URI, new String[]{"album_count"}, "id=?",
+                new String[]{String.valueOf(artistId)}, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
@@ -121,21 +1008,17 @@ public class AlbumManager {
      * @return List of matching albums
      */
     public List<Album> searchAlbumsByArtist(String artist) {
-        Log.d(TAG, "Searching albums by artist: " + artist);
-        List<Album> albums = new ArrayList<>();
-        String selection = "artist LIKE ?";
-        String[] selectionArgs = new String[]{"%" + artist + "%"};
-        Cursor cursor = contentResolver.query(CONTENT_URI, null, selection, selectionArgs, null);
-        if (cursor != null) {
-            while (cursor.moveToNext()) {
-                long id = cursor.getLong(cursor.getColumnIndex("id"));
-                String name = cursor.getString(cursor.getColumnIndex("name"));
-                albums.add(new Album(id, artist, name));
-            }
-            cursor.close();
+        long start = AlbumMetrics.begin(Operation.MANAGER_SEARCH_ARTIST);
+        List<Album> albums = null;
+        try {
+            String selection = "artist LIKE ?";
+            String[] selectionArgs = new String[]{"%" + artist + "%"};
+            albums = readAlbums(contentResolver.query(CONTENT_URI,
+                    AlbumCursorMapper.PROJECTION, selection, selectionArgs, null));
+            return albums;
+        } finally {
+            AlbumMetrics.end(Operation.MANAGER_SEARCH_ARTIST, start, albums != null ? albums.size() : 0);
         }
-        Log.d(TAG, "Found " + albums.size() + " albums by artist");
-        return albums;
     }
 
     /**
@@ -144,20 +1027,309 @@ public class AlbumManager {
      * @return List of matching albums
      */
     public List<Album> searchAlbumsByName(String name) {
-        Log.d(TAG, "Searching albums by name: " + name);
-        List<Album> albums = new ArrayList<>();
-        String selection = "name LIKE ?";
-        String[] selectionArgs = new String[]{"%" + name + "%"};
-        Cursor cursor = contentResolver.query(CONTENT_URI, null, selection, selectionArgs, null);
-        if (cursor != null) {
+        long start = AlbumMetrics.begin(Operation.MANAGER_SEARCH_NAME);
+        List<Album> albums = null;
+        try {
+            String selection = "name LIKE ?";
+            String[] selectionArgs = new String[]{"%" + name + "%"};
+            albums = readAlbums(contentResolver.query(CONTENT_URI,
+                    AlbumCursorMapper.PROJECTION, selection, selectionArgs, null));
+            return albums;
+        } finally {
+            AlbumMetrics.end(Operation.MANAGER_SEARCH_NAME, start, albums != null ? albums.size() : 0);
+        }
+    }
+
+    /**
+     * Full-text search over artist and album name, matching each word as a prefix
+     * @param query The search text, e.g. as typed so far
+     * @param limit The maximum number of albums to return
+     * @return List of matching albums, best matches first
+     */
+    public List<Album> search(String query, int limit) {
+        long start = AlbumMetrics.begin(Operation.MANAGER_SEARCH);
+        List<Album> albums = null;
+        try {
+            Uri uri = SEARCH_URI.buildUpon()
+                    .appendQueryParameter("q", query)
+                    .appendQueryParameter("limit", String.valueOf(limit))
+                    .build();
+            albums = readAlbums(contentResolver.query(uri, AlbumCursorMapper.PROJECTION,
+                    null, null, null));
+            return albums;
+        } finally {
+            AlbumMetrics.end(Operation.MANAGER_SEARCH, start, albums != null ? albums.size() : 0);
+        }
+    }
+
+    /**
+     * Find albums matching a compound filter with a query to the provider
+     * @param filter The clauses every album must match
+     * @return List of matching albums, in ID order
+     */
+    public List<Album> findAlbums(AlbumFilter filter) {
+        long start = AlbumMetrics.begin(Operation.MANAGER_FIND);
+        List<Album> albums = null;
+        try {
+            albums = readAlbums(contentResolver.query(CONTENT_URI, AlbumCursorMapper.PROJECTION,
+                    filter.selection(), filter.selectionArgs(), null));
+            return albums;
+        } finally {
+            AlbumMetrics.end(Operation.MANAGER_FIND, start, albums != null ? albums.size() : 0);
+        }
+    }
+
+    /**
+     * Find albums matching a compound filter in a replica snapshot, without
+     * crossing into the provider. Large snapshots are split across the
+     * common fork-join pool, so this uses every core; call it off the main
+     * thread for large libraries.
+     * @param filter The clauses every album must match
+     * @param snapshot The albums to search, e.g. AlbumReplica.snapshot()
+     * @return List of matching albums, in ID order
+     */
+    public List<Album> findAlbums(AlbumFilter filter, AlbumReplica.Snapshot snapshot) {
+        long start = AlbumMetrics.begin(Operation.MANAGER_FIND_IN_SNAPSHOT);
+        List<Album> albums = null;
+        try {
+            Stream<Album> stream = snapshot.stream();
+            if (snapshot.size() >= PARALLEL_FIND_THRESHOLD) {
+                stream = stream.parallel();
+            }
+            albums = stream.filter(filter::matches).collect(Collectors.toList());
+            return albums;
+        } finally {
+            AlbumMetrics.end(Operation.MANAGER_FIND_IN_SNAPSHOT, start, snapshot.size(),
+                    albums != null ? albums.size() : 0);
+        }
+    }
+
+    /**
+     * Get every artist that has at least one album, with its album count
+     * @return List of artists in name order, ignoring case
+     */
+    public List<Artist> getArtists() {
+        long start = AlbumMetrics.begin(Operation.MANAGER_GET_ARTISTS);
+        List<Artist> artists = new ArrayList<>();
+        try {
+            Cursor cursor = contentResolver.query(ARTISTS_URI, ARTIST_PROJECTION, null, null, null);
+            if (cursor != null) {
+                try {
+                    while (cursor.moveToNext()) {
+                        artists.add(Artist.fromCursor(cursor));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            return artists;
+        } finally {
+            AlbumMetrics.end(Operation.MANAGER_GET_ARTISTS, start, artists.size());
+        }
+    }
+
+    /**
+     * Get a summary of every artist with albums. The provider groups the
+     * albums, so one row per artist crosses the process boundary instead of
+     * the whole library.
+     * @return List of summaries in artist name order, ignoring case
+     */
+    public List<ArtistSummary> getArtistSummaries() {
+        long start = AlbumMetrics.begin(Operation.MANAGER_GET_SUMMARIES);
+        List<ArtistSummary> summaries = new ArrayList<>();
+        try {
+            Cursor cursor = contentResolver.query(BY_ARTIST_URI, SUMMARY_PROJECTION,
+                    null, null, null);
+            if (cursor != null) {
+                try {
+                    while (cursor.moveToNext()) {
+                        summaries.add(ArtistSummary.fromCursor(cursor));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            return summaries;
+        } finally {
+            AlbumMetrics.end(Operation.MANAGER_GET_SUMMARIES, start, summaries.size());
+        }
+    }
+
+    /**
+     * Get the albums of one artist. Matches on the artist ID, so unlike
+     * searchAlbumsByArtist this is an index lookup rather than a string scan.
+     * @param artistId The artist ID, as returned by getArtists() or Album.getArtistId()
+     * @return List of the artist's albums in ID order
+     */
+    public List<Album> getAlbumsByArtist(long artistId) {
+        long start = AlbumMetrics.begin(Operation.MANAGER_GET_BY_ARTIST);
+        List<Album> albums = null;
+        try {
+            String selection = "artist_id=?";
+            String[] selectionArgs = new String[]{String.valueOf(artistId)};
+            albums = readAlbums(contentResolver.query(CONTENT_URI,
+                    AlbumCursorMapper.PROJECTION, selection, selectionArgs, null));
+            return albums;
+        } finally {
+            AlbumMetrics.end(Operation.MANAGER_GET_BY_ARTIST, start, albums != null ? albums.size() : 0);
+        }
+    }
+
+    /**
+     * Get the albums changed after a sequence number, for incremental sync.
+     * Each changed album is reported once, with every kind of change it had
+     * and its current state, so applying the entries in order as upserts and
+     * deletes brings a copy up to date. Start from 0 to read every album that
+     * is still in the log.
+     * @param seq The latest sequence number already applied, or 0
+     * @return The changes, or null if the provider is unavailable
+     */
+    public ChangeSet getChangesSince(long seq) {
+        long start = AlbumMetrics.begin(Operation.MANAGER_GET_CHANGES);
+        int rows = 0;
+        Cursor cursor = null;
+        try {
+            Uri uri = CHANGES_URI.buildUpon()
+                    .appendQueryParameter(QUERY_SINCE, Long.toString(seq))
+                    .build();
+            cursor = contentResolver.query(uri, null, null, null, null);
+            if (cursor == null) {
+                return null;
+            }
+            Bundle extras = cursor.getExtras();
+            long oldestSeq = extras.getLong(EXTRA_OLDEST_SEQ);
+            long latestSeq = extras.getLong(EXTRA_LATEST_SEQ);
+            // Anything from oldestSeq on is still logged; a seq past the end
+            // of the log belongs to a database that has since been replaced
+            boolean complete = seq <= latestSeq && (oldestSeq == 0 || seq >= oldestSeq - 1);
+            List<AlbumChange> changes = new ArrayList<>(cursor.getCount());
             while (cursor.moveToNext()) {
-                long id = cursor.getLong(cursor.getColumnIndex("id"));
-                String artist = cursor.getString(cursor.getColumnIndex("artist"));
-                albums.add(new Album(id, artist, name));
+                AlbumChange change = AlbumChange.fromCursor(cursor);
+                changes.add(change);
+                // Writes committed after the extras were read
+                latestSeq = Math.max(latestSeq, change.getSeq());
+            }
+            rows = changes.size();
+            return new ChangeSet(changes, latestSeq, complete);
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting changes: " + e.getMessage());
+            return null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            AlbumMetrics.end(Operation.MANAGER_GET_CHANGES, start, rows);
+        }
+    }
+
+    /**
+     * Get the sequence number of the latest change in the log. Read it before
+     * reading every album, then pass it to getChangesSince() to pick up the
+     * changes made while that read ran.
+     * @return The sequence number, or -1 if the provider is unavailable
+     */
+    public long getLatestChangeSeq() {
+        // No change is newer than Long.MAX_VALUE, so this reads only the log bounds
+        ChangeSet head = getChangesSince(Long.MAX_VALUE);
+        return head != null ? head.getLatestSeq() : -1;
+    }
+
+    /**
+     * Listen for album changes, receiving the IDs of the changed rows where the
+     * provider reports them
+     * @param listener The listener to register
+     * @param handler The handler to deliver changes on, or null for the binder thread
+     */
+    public void registerChangeListener(AlbumChangeListener listener, Handler handler) {
+        ContentObserver observer = new ContentObserver(handler) {
+            @Override
+            public void onChange(boolean selfChange, Collection<Uri> uris, int flags) {
+                // API 30+: all rows of one notification arrive together with their flags
+                listener.onAlbumsChanged(changesFromFlags(flags), idsFromUris(uris), isOwnWrite(uris));
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                // Older platforms deliver one row at a time without flags
+                Collection<Uri> uris = Collections.singletonList(uri);
+                listener.onAlbumsChanged(0, idsFromUris(uris), isOwnWrite(uris));
+            }
+        };
+        synchronized (changeObservers) {
+            if (changeObservers.containsKey(listener)) {
+                return;
+            }
+            changeObservers.put(listener, observer);
+        }
+        contentResolver.registerContentObserver(CONTENT_URI, true, observer);
+    }
+
+    /**
+     * Stop delivering album changes to a listener
+     * @param listener The listener to unregister
+     */
+    public void unregisterChangeListener(AlbumChangeListener listener) {
+        ContentObserver observer;
+        synchronized (changeObservers) {
+            observer = changeObservers.remove(listener);
+        }
+        if (observer != null) {
+            contentResolver.unregisterContentObserver(observer);
+        }
+    }
+
+    // A fresh token per write, so every notification names the call that caused it
+    private Uri writeUri(Uri uri) {
+        return uri.buildUpon()
+                .appendQueryParameter(QUERY_TOKEN, origin + writes.incrementAndGet())
+                .build();
+    }
+
+    private boolean isOwnWrite(Collection<Uri> uris) {
+        for (Uri uri : uris) {
+            String token = uri != null ? uri.getQueryParameter(QUERY_TOKEN) : null;
+            if (token == null || !token.startsWith(origin)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int changesFromFlags(int flags) {
+        int changes = 0;
+        if ((flags & ContentResolver.NOTIFY_INSERT) != 0) {
+            changes |= CHANGE_INSERT;
+        }
+        if ((flags & ContentResolver.NOTIFY_UPDATE) != 0) {
+            changes |= CHANGE_UPDATE;
+        }
+        if ((flags & ContentResolver.NOTIFY_DELETE) != 0) {
+            changes |= CHANGE_DELETE;
+        }
+        return changes;
+    }
+
+    /**
+     * Extract album IDs from albums/<id> URIs; a notification for the albums URI
+     * itself means any album may have changed, reported as null
+     */
+    private static long[] idsFromUris(Collection<Uri> uris) {
+        long[] ids = new long[uris.size()];
+        int count = 0;
+        for (Uri uri : uris) {
+            if (uri == null) {
+                return null;
+            }
+            List<String> segments = uri.getPathSegments();
+            if (segments.size() != 2) {
+                return null;
+            }
+            try {
+                ids[count++] = Long.parseLong(segments.get(1));
+            } catch (NumberFormatException e) {
+                return null;
             }
-            cursor.close();
         }
-        Log.d(TAG, "Found " + albums.size() + " albums by name");
-        return albums;
+        return ids;
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,218 @@
+package com.example.albummanager;
+
+import android.os.Trace;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-operation counters, latency histograms and counts of rows scanned and
+ * returned for AlbumManager and AlbumProvider, plus android.os.Trace sections
+ * around each operation.
+ *
+ * Rows scanned are the rows an operation read to produce its result, e.g. a
+ * whole snapshot for a filter that returns a few albums. They are counted in
+ * Java: android.database.sqlite does not expose SQLite's per-statement step
+ * counters, so the rows SQLite visits inside a query are not included, and a
+ * provider query, which returns an unread cursor, records neither count.
+ *
+ * Disabled by default. While disabled, begin() and end() only read a volatile
+ * flag, so instrumented code pays no allocation or string building. Enable it
+ * with setEnabled(), or with
+ * adb shell dumpsys activity provider com.example.albummanager/.AlbumProvider enable
+ * and read it back with the same command without arguments.
+ */
+public final class AlbumMetrics {
+    public enum Operation {
+        MANAGER_ADD("AlbumManager.addAlbum"),
+        MANAGER_ADD_BATCH("AlbumManager.addAlbums"),
+        MANAGER_APPLY("AlbumManager.applyOperations"),
+        MANAGER_GET_ALL("AlbumManager.getAllAlbums"),
+        MANAGER_QUERY("AlbumManager.queryAlbums"),
+        MANAGER_GET_TABLE("AlbumManager.getAlbumTable"),
+        MANAGER_GET_PAGE("AlbumManager.getAlbumsPage"),
+        MANAGER_GET_BY_ID("AlbumManager.getAlbumById"),
+        MANAGER_UPDATE("AlbumManager.updateAlbum"),
+        MANAGER_DELETE("AlbumManager.deleteAlbum"),
+        MANAGER_DELETE_BY_ARTIST("AlbumManager.deleteByArtist"),
+        MANAGER_RENAME_ARTIST("AlbumManager.renameArtist"),
+        MANAGER_SEARCH_ARTIST("AlbumManager.searchAlbumsByArtist"),
+        MANAGER_SEARCH_NAME("AlbumManager.searchAlbumsByName"),
+        MANAGER_SEARCH("AlbumManager.search"),
+        MANAGER_FIND("AlbumManager.findAlbums"),
+        MANAGER_FIND_IN_SNAPSHOT("AlbumManager.findAlbums(snapshot)"),
+        MANAGER_GET_ARTISTS("AlbumManager.getArtists"),
+        MANAGER_GET_BY_ARTIST("AlbumManager.getAlbumsByArtist"),
+        MANAGER_GET_SUMMARIES("AlbumManager.getArtistSummaries"),
+        MANAGER_GET_CHANGES("AlbumManager.getChangesSince"),
+        MANAGER_EXPORT("AlbumManager.exportAlbums"),
+        MANAGER_IMPORT("AlbumManager.importAlbums"),
+        PROVIDER_QUERY("AlbumProvider.query"),
+        PROVIDER_SEARCH("AlbumProvider.search"),
+        PROVIDER_INSERT("AlbumProvider.insert"),
+        PROVIDER_BULK_INSERT("AlbumProvider.bulkInsert"),
+        PROVIDER_APPLY_BATCH("AlbumProvider.applyBatch"),
+        PROVIDER_UPDATE("AlbumProvider.update"),
+        PROVIDER_DELETE("AlbumProvider.delete"),
+        PROVIDER_EXPORT("AlbumProvider.export");
+
+        final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * Receives every recorded operation, e.g. to forward it to an external
+     * metrics system. Called on the thread that ran the operation.
+     */
+    public interface Listener {
+        /**
+         * @param rows Rows returned by a read or affected by a write
+         */
+        void onOperation(Operation operation, long nanos, int rows);
+
+        /**
+         * Like onOperation(Operation, long, int), with the rows scanned too.
+         * Override this one to receive both counts.
+         */
+        default void onOperation(Operation operation, long nanos, int scanned, int returned) {
+            onOperation(operation, nanos, returned);
+        }
+    }
+
+    // Latency bucket i counts operations that took less than 2^i microseconds;
+    // the last bucket takes everything slower
+    private static final int BUCKETS = 24;
+
+    private static final int COUNT = 0;
+    private static final int TOTAL_NANOS = 1;
+    private static final int MAX_NANOS = 2;
+    private static final int SCANNED = 3;
+    private static final int RETURNED = 4;
+    private static final int FIRST_BUCKET = 5;
+    private static final int SLOTS = FIRST_BUCKET + BUCKETS;
+
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final AtomicLongArray stats = new AtomicLongArray(OPERATIONS.length * SLOTS);
+
+    private static volatile boolean enabled;
+    private static volatile Listener listener;
+
+    private AlbumMetrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        AlbumMetrics.enabled = enabled;
+    }
+
+    public static void setListener(Listener listener) {
+        AlbumMetrics.listener = listener;
+    }
+
+    /**
+     * Start timing an operation and open its trace section
+     * @return The start time to pass to end(), or 0 if metrics are disabled
+     */
+    public static long begin(Operation operation) {
+        if (!enabled) {
+            return 0;
+        }
+        Trace.beginSection(operation.label);
+        return System.nanoTime();
+    }
+
+    /**
+     * Finish an operation started with begin() on the same thread, for one
+     * that scanned only the rows it returned
+     * @param start The value returned by begin()
+     * @param rows Rows returned by a read or affected by a write
+     */
+    public static void end(Operation operation, long start, int rows) {
+        end(operation, start, rows, rows);
+    }
+
+    /**
+     * Finish an operation started with begin() on the same thread
+     * @param start The value returned by begin()
+     * @param scanned Rows read to produce the result
+     * @param returned Rows returned by a read or affected by a write
+     */
+    public static void end(Operation operation, long start, int scanned, int returned) {
+        if (start == 0) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        Trace.endSection();
+
+        int base = operation.ordinal() * SLOTS;
+        stats.incrementAndGet(base + COUNT);
+        stats.addAndGet(base + TOTAL_NANOS, nanos);
+        stats.addAndGet(base + SCANNED, scanned);
+        stats.addAndGet(base + RETURNED, returned);
+        long max;
+        do {
+            max = stats.get(base + MAX_NANOS);
+        } while (nanos > max && !stats.compareAndSet(base + MAX_NANOS, max, nanos));
+        stats.incrementAndGet(base + FIRST_BUCKET + bucket(nanos));
+
+        Listener current = listener;
+        if (current != null) {
+            current.onOperation(operation, nanos, scanned, returned);
+        }
+    }
+
+    public static void reset() {
+        for (int i = 0; i < stats.length(); i++) {
+            stats.set(i, 0);
+        }
+    }
+
+    /**
+     * Write one line per operation that has run: count, mean, percentiles
+     * estimated from the histogram, max, and rows scanned and returned
+     */
+    public static void dump(PrintWriter writer) {
+        writer.println("AlbumMetrics enabled=" + enabled);
+        for (Operation operation : OPERATIONS) {
+            int base = operation.ordinal() * SLOTS;
+            long count = stats.get(base + COUNT);
+            if (count == 0) {
+                continue;
+            }
+            writer.println("  " + operation.label
+                    + " count=" + count
+                    + " mean=" + stats.get(base + TOTAL_NANOS) / count / 1000 + "us"
+                    + " p50<" + percentileMicros(base, count, 0.50) + "us"
+                    + " p90<" + percentileMicros(base, count, 0.90) + "us"
+                    + " p99<" + percentileMicros(base, count, 0.99) + "us"
+                    + " max=" + stats.get(base + MAX_NANOS) / 1000 + "us"
+                    + " scanned=" + stats.get(base + SCANNED)
+                    + " returned=" + stats.get(base + RETURNED));
+        }
+    }
+
+    private static int bucket(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    // Upper bound of the bucket holding the given percentile
+    private static long percentileMicros(int base, long count, double percentile) {
+        long target = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += stats.get(base + FIRST_BUCKET + i);
+            if (seen >= target) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+}
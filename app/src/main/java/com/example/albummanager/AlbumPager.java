@@ -0,0 +1,188 @@
+package com.example.albummanager;
+
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import com.example.albummanager.model.Album;
+import com.example.albummanager.model.AlbumCursorMapper;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the rows of an album cursor to the main thread a page at a time.
+ * A background thread owns the cursor and reads pages ahead of the rows being
+ * bound, so scrolling never waits for a cursor window to fill and binding a
+ * row only reads an array. At most MAX_PAGES pages are held; the ones furthest
+ * from the last row asked for are dropped first.
+ *
+ * Create it off the main thread, which reads the row count, every row's ID
+ * and the first pages; use it on the main thread afterwards. close() releases
+ * the cursor.
+ */
+public class AlbumPager {
+    static final int PAGE_SIZE = 100;
+    static final int MAX_PAGES = 32;
+
+    // One thread for every pager, so cursors are only ever touched there
+    private static final ExecutorService pageLoader = newPageLoader();
+
+    public interface Listener {
+        /**
+         * Called on the main thread when rows that were missing can be bound
+         */
+        void onRowsLoaded(int start, int count);
+    }
+
+    private final Cursor cursor;
+    private final AlbumCursorMapper mapper;
+    private final int count;
+    // Every row's album ID, so a row still loading already has its ID
+    private final long[] ids;
+    private final Album[][] pages;
+    // Page numbers in pages that are not null; main thread only
+    private final int[] resident = new int[MAX_PAGES + 1];
+    private int residentCount;
+    private final boolean[] requested;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private Listener listener;
+    private volatile boolean closed;
+
+    /**
+     * Read the row count, the album IDs and the pages around a position.
+     * Blocks on the provider, so call it off the main thread.
+     * @param cursor The rows to page over; the pager owns and closes it
+     * @param position The row to load first, e.g. the first one on screen
+     */
+    public AlbumPager(Cursor cursor, int position) {
+        this.cursor = cursor;
+        this.mapper = new AlbumCursorMapper(cursor);
+        this.count = cursor.getCount();
+        this.ids = new long[count];
+        for (int i = 0; i < count && cursor.moveToPosition(i); i++) {
+            ids[i] = mapper.getId();
+        }
+        int pageCount = (count + PAGE_SIZE - 1) / PAGE_SIZE;
+        this.pages = new Album[pageCount][];
+        this.requested = new boolean[pageCount];
+        if (count > 0) {
+            int page = Math.min(Math.max(position, 0), count - 1) / PAGE_SIZE;
+            for (int i = Math.max(page - 1, 0); i <= Math.min(page + 1, pageCount - 1); i++) {
+                install(i, readPage(i));
+            }
+        }
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Get the ID of the album at a position, whether or not its page is loaded
+     */
+    public long getId(int position) {
+        return ids[position];
+    }
+
+    /**
+     * Get the album at a position, and start loading the neighbouring page
+     * if the position is in the half of its page nearest to it
+     * @return The album, or null if its page is still loading
+     */
+    public Album getAlbum(int position) {
+        int page = position / PAGE_SIZE;
+        int offset = position % PAGE_SIZE;
+        if (offset >= PAGE_SIZE / 2) {
+            request(page + 1);
+        } else {
+            request(page - 1);
+        }
+        Album[] rows = pages[page];
+        if (rows == null) {
+            request(page);
+            return null;
+        }
+        return rows[offset];
+    }
+
+    /**
+     * Drop the pages and close the cursor once pending loads have finished
+     */
+    public void close() {
+        closed = true;
+        pageLoader.execute(cursor::close);
+    }
+
+    private void request(int page) {
+        if (page < 0 || page >= pages.length || pages[page] != null || requested[page] || closed) {
+            return;
+        }
+        requested[page] = true;
+        pageLoader.execute(() -> {
+            if (closed) {
+                return;
+            }
+            Album[] rows = readPage(page);
+            mainHandler.post(() -> {
+                requested[page] = false;
+                if (closed) {
+                    return;
+                }
+                install(page, rows);
+                if (listener != null) {
+                    listener.onRowsLoaded(page * PAGE_SIZE, rows.length);
+                }
+            });
+        });
+    }
+
+    // Runs on the thread that created the pager, then only on pageLoader
+    private Album[] readPage(int page) {
+        int start = page * PAGE_SIZE;
+        Album[] rows = new Album[Math.min(PAGE_SIZE, count - start)];
+        for (int i = 0; i < rows.length && cursor.moveToPosition(start + i); i++) {
+            rows[i] = mapper.map();
+        }
+        return rows;
+    }
+
+    private void install(int page, Album[] rows) {
+        pages[page] = rows;
+        resident[residentCount++] = page;
+        if (residentCount <= MAX_PAGES) {
+            return;
+        }
+        // Drop the page furthest from the one just loaded, which is near
+        // where the list is being scrolled
+        int furthest = 0;
+        for (int i = 1; i < residentCount; i++) {
+            if (Math.abs(resident[i] - page) > Math.abs(resident[furthest] - page)) {
+                furthest = i;
+            }
+        }
+        pages[resident[furthest]] = null;
+        resident[furthest] = resident[--residentCount];
+    }
+
+    private static ExecutorService newPageLoader() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }, "AlbumPager");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -1,18 +1,44 @@
 package com.example.albummanager;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.LruCache;
+
+import com.example.albummanager.AlbumMetrics.Operation;
+
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 public class AlbumProvider extends ContentProvider {
     private static final String TAG = "AlbumProvider";
@@ -25,13 +51,68 @@ public class AlbumProvider extends ContentProvider {
 
     // parsing the content URI
     static final Uri CONTENT_URI = Uri.parse(URL);
+    static final Uri ARTISTS_URI = Uri.parse("content://" + PROVIDER_NAME + "/artists");
+    static final Uri CHANGES_URI = Uri.parse("content://" + PROVIDER_NAME + "/changes");
 
     static final String id = "id";
     static final String artist = "artist";
     static final String name = "name";
+    static final String artistId = "artist_id";
+    static final String albumCount = "album_count";
+    static final String firstAlbumId = "first_album_id";
+    static final String firstAlbum = "first_album";
+    static final String lastAlbumId = "last_album_id";
+    static final String lastAlbum = "last_album";
+    static final String seq = "seq";
+    static final String albumId = "album_id";
+    static final String changes = "changes";
     static final int uriCode = 1;
+    static final int searchCode = 2;
+    static final int exportCode = 3;
+    static final int artistsCode = 4;
+    static final int byArtistCode = 5;
+    static final int itemCode = 6;
+    static final int changesCode = 7;
+    static final int artistAlbumsCode = 8;
+
+    // query parameters for keyset pagination over the id primary key
+    static final String QUERY_AFTER_ID = "afterId";
+    static final String QUERY_LIMIT = "limit";
+
+    // query parameter holding the user's search text on the search URI
+    static final String QUERY_SEARCH = "q";
+    static final int DEFAULT_SEARCH_LIMIT = 50;
+
+    // query parameter choosing the AlbumArchive format on the export URI
+    static final String QUERY_FORMAT = "format";
+    // optional query parameter on write URIs, echoed on the URIs of the
+    // notifications that write causes so a client can recognise its own changes
+    static final String QUERY_TOKEN = "token";
+    // query parameter on artists/<id>/albums writes: set on every call of a
+    // chunked job after the first, so the call that finishes the job notifies
+    // for the rows of the earlier calls too
+    static final String QUERY_CONTINUED = "continued";
+
+    // query parameter on the changes URI: report changes after this sequence number
+    static final String QUERY_SINCE = "since";
+    // extras of a changes cursor: the first and last sequence numbers still in
+    // the change log, or 0 if it is empty
+    static final String EXTRA_OLDEST_SEQ = "oldest_seq";
+    static final String EXTRA_LATEST_SEQ = "latest_seq";
+
+    // rows read per query while streaming an export
+    static final int EXPORT_PAGE_SIZE = 1000;
+
+    // artist name to Artists row ID entries kept for writes
+    static final int ARTIST_ID_CACHE_SIZE = 1024;
+
+    // changes touching more rows than this are notified for the whole table
+    static final int MAX_ROW_NOTIFICATIONS = 100;
+
     static final UriMatcher uriMatcher;
     private static HashMap<String, String> values;
+    private static HashMap<String, String> artistValues;
+    private static HashMap<String, String> summaryValues;
 
     static {
         // Initialize the values HashMap
@@ -39,6 +120,18 @@ public class AlbumProvider extends ContentProvider {
         values.put(id, id);
         values.put(artist, artist);
         values.put(name, name);
+        values.put(artistId, artistId);
+
+        artistValues = new HashMap<>();
+        artistValues.put(id, id);
+        artistValues.put(name, name);
+        artistValues.put(albumCount, albumCount);
+
+        summaryValues = new HashMap<>();
+        for (String column : new String[]{artistId, artist, albumCount, firstAlbumId, firstAlbum,
+                lastAlbumId, lastAlbum}) {
+            summaryValues.put(column, column);
+        }
 
         // to match the content URI
         // every time user access table under content provider
@@ -47,16 +140,53 @@ public class AlbumProvider extends ContentProvider {
         // to access whole table
         uriMatcher.addURI(PROVIDER_NAME, "albums", uriCode);
 
+        // to get one summary row per artist; registered before albums/* so
+        // that the wildcard does not claim it
+        uriMatcher.addURI(PROVIDER_NAME, "albums/by_artist", byArtistCode);
+
+        // to access a particular row of the table by ID, through cached
+        // statements instead of a built selection
+        uriMatcher.addURI(PROVIDER_NAME, "albums/#", itemCode);
+
         // to access a particular row
         // of the table
         uriMatcher.addURI(PROVIDER_NAME, "albums/*", uriCode);
+
+        // to run a full-text search over artist and name
+        uriMatcher.addURI(PROVIDER_NAME, "search", searchCode);
+
+        // to stream the whole table as an AlbumArchive through openFile
+        uriMatcher.addURI(PROVIDER_NAME, "export", exportCode);
+
+        // to list artists that have at least one album
+        uriMatcher.addURI(PROVIDER_NAME, "artists", artistsCode);
+
+        // to read the change log since a sequence number
+        uriMatcher.addURI(PROVIDER_NAME, "changes", changesCode);
+
+        // to read, delete or re-artist the albums of one artist, in chunks
+        // when given a limit
+        uriMatcher.addURI(PROVIDER_NAME, "artists/#/albums", artistAlbumsCode);
     }
 
     @Override
     public String getType(Uri uri) {
         switch (uriMatcher.match(uri)) {
             case uriCode:
+            case searchCode:
+            case artistAlbumsCode:
                 return "vnd.android.cursor.dir/albums";
+            case itemCode:
+                return "vnd.android.cursor.item/albums";
+            case artistsCode:
+                return "vnd.android.cursor.dir/artists";
+            case byArtistCode:
+                return "vnd.android.cursor.dir/artist_summaries";
+            case changesCode:
+                return "vnd.android.cursor.dir/album_changes";
+            case exportCode:
+                return AlbumArchive.Format.fromParameter(uri.getQueryParameter(QUERY_FORMAT))
+                        .getMimeType();
             default:
                 throw new IllegalArgumentException("Unsupported URI: " + uri);
         }
@@ -65,50 +195,330 @@ public class AlbumProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         Log.d(TAG, "onCreate called");
-        Context context = getContext();
-        DatabaseHelper dbHelper = new DatabaseHelper(context);
-        db = dbHelper.getWritableDatabase();
-        return db != null;
+        // onCreate runs on the main thread as the process starts, so creating
+        // or migrating the schema here would delay the first frame. Open it
+        // on a background thread instead; a call that arrives first waits
+        // for it in getDatabase().
+        StorageProfile profile = StorageProfile.forName(
+                getContext().getString(R.string.storage_profile));
+        dbHelper = new DatabaseHelper(getContext(), profile);
+        Thread opener = new Thread(() -> {
+            // Below the UI thread, which is drawing the first frame meanwhile
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            try {
+                getDatabase();
+            } catch (RuntimeException e) {
+                // The first call to need the database retries and reports it
+                Log.e(TAG, "Error opening database", e);
+            }
+        }, TAG + ".open");
+        opener.setDaemon(true);
+        opener.start();
+        return true;
+    }
+
+    /**
+     * Get the database, opening it and compiling the statements used on
+     * every call the first time. Blocks while another thread is opening it.
+     */
+    private SQLiteDatabase getDatabase() {
+        SQLiteDatabase database = db;
+        if (database != null) {
+            return database;
+        }
+        synchronized (dbHelper) {
+            if (db == null) {
+                long start = SystemClock.elapsedRealtime();
+                SQLiteDatabase opened = dbHelper.getWritableDatabase();
+                updateById = opened.compileStatement(UPDATE_ALBUM_BY_ID);
+                deleteById = opened.compileStatement(DELETE_ALBUM_BY_ID);
+                // Published last, so a thread that sees db sees the statements
+                db = opened;
+                Log.d(TAG, "Opened database in " + (SystemClock.elapsedRealtime() - start) + " ms");
+            }
+            return db;
+        }
     }
 
     @Override
     public Cursor query(Uri uri, String[] projection, String selection,
                         String[] selectionArgs, String sortOrder) {
-        Log.d(TAG, "query called with URI: " + uri);
+        int match = uriMatcher.match(uri);
+        if (match == searchCode) {
+            return search(uri);
+        }
+        if (match == changesCode) {
+            return queryChanges(uri);
+        }
+        if (match == itemCode && selection == null
+                && (projection == null || Arrays.equals(projection, ITEM_COLUMNS))) {
+            return queryById(ContentUris.parseId(uri));
+        }
+        // The cursor window is filled lazily by the reader, so this times
+        // preparing the query only and leaves the row count to the caller
+        long start = AlbumMetrics.begin(Operation.PROVIDER_QUERY);
+        try {
+            String sql;
+            switch (match) {
+                case artistsCode:
+                    sql = buildArtistsQuery(projection, selection, sortOrder);
+                    break;
+                case byArtistCode:
+                    sql = buildArtistSummariesQuery(projection, selection, sortOrder);
+                    break;
+                default:
+                    sql = buildAlbumsQuery(uri, projection, selection, sortOrder);
+                    break;
+            }
+            Cursor c = getDatabase().rawQuery(sql, selectionArgs);
+
+            // Set notification URI to CONTENT_URI
+            if (c != null) {
+                c.setNotificationUri(getContext().getContentResolver(), CONTENT_URI);
+            } else {
+                Log.e(TAG, "Query returned null cursor");
+            }
+            return c;
+        } finally {
+            AlbumMetrics.end(Operation.PROVIDER_QUERY, start, 0);
+        }
+    }
+
+    /**
+     * Build the SQL for a query on the albums URI, including keyset pagination.
+     * Kept separate from query() so the query plans can be checked in tests.
+     */
+    static String buildAlbumsQuery(Uri uri, String[] projection, String selection,
+                                   String sortOrder) {
         SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
-        qb.setTables(TABLE_NAME);
-        
+        qb.setTables(ALBUMS_VIEW_NAME);
+
         // Set projection map if provided
         if (projection != null) {
             qb.setProjectionMap(values);
         }
-        
+
+        int match = uriMatcher.match(uri);
+        if (match == itemCode) {
+            qb.appendWhere(id + " = " + ContentUris.parseId(uri));
+        } else if (match == artistAlbumsCode) {
+            qb.appendWhere(artistId + " = " + artistIdOf(uri));
+        }
+
         if (sortOrder == null || sortOrder.isEmpty()) {
             sortOrder = id;
         }
-        
-        Cursor c = qb.query(db, projection, selection, selectionArgs, null,
-                null, sortOrder);
-        
-        // Set notification URI to CONTENT_URI
-        if (c != null) {
-            c.setNotificationUri(getContext().getContentResolver(), CONTENT_URI);
-            Log.d(TAG, "Query completed, cursor count: " + c.getCount());
-        } else {
-            Log.e(TAG, "Query returned null cursor");
+
+        // Keyset pagination: rows strictly after the given id, in id order, so
+        // each page is an index range scan regardless of how deep it is
+        String afterId = uri.getQueryParameter(QUERY_AFTER_ID);
+        if (afterId != null) {
+            qb.appendWhere(id + " > " + parseLongParameter(uri, QUERY_AFTER_ID, afterId));
+            sortOrder = id;
+        }
+        String limit = uri.getQueryParameter(QUERY_LIMIT);
+        if (limit != null) {
+            long rows = parseLongParameter(uri, QUERY_LIMIT, limit);
+            if (rows <= 0) {
+                throw new IllegalArgumentException("Invalid " + QUERY_LIMIT + " in URI: " + uri);
+            }
+            limit = String.valueOf(rows);
+        }
+        return qb.buildQuery(projection, selection, null, null, sortOrder, limit);
+    }
+
+    // Point read of one album. The SQL never changes, so SQLite's per-connection
+    // statement cache serves it without parsing; a SQLiteStatement cannot
+    // return rows, so this is the cached form a read can take.
+    private Cursor queryById(long rowID) {
+        long start = AlbumMetrics.begin(Operation.PROVIDER_QUERY);
+        try {
+            Cursor c = getDatabase().rawQuery(SELECT_ALBUM_BY_ID, new String[]{Long.toString(rowID)});
+            if (c != null) {
+                c.setNotificationUri(getContext().getContentResolver(), CONTENT_URI);
+            }
+            return c;
+        } finally {
+            AlbumMetrics.end(Operation.PROVIDER_QUERY, start, 0);
+        }
+    }
+
+    /**
+     * Read the change log: one row per album changed after the since
+     * parameter, in the order of each album's latest change, with every kind
+     * of change it had since then and its current artist and name, which are
+     * null if it has been deleted. The extras hold the bounds of the log, so a
+     * caller can tell when changes it has not seen were already pruned.
+     *
+     * The limit parameter bounds the log rows read, not the albums returned,
+     * so a page never splits one album's changes: every change up to the
+     * page's last seq is in the page, and the next page starts after it.
+     */
+    private Cursor queryChanges(Uri uri) {
+        SQLiteDatabase db = getDatabase();
+        String sinceParameter = uri.getQueryParameter(QUERY_SINCE);
+        long since = sinceParameter != null
+                ? parseLongParameter(uri, QUERY_SINCE, sinceParameter) : 0;
+        long limit = -1;
+        String limitParameter = uri.getQueryParameter(QUERY_LIMIT);
+        if (limitParameter != null) {
+            limit = parseLongParameter(uri, QUERY_LIMIT, limitParameter);
+            if (limit <= 0) {
+                throw new IllegalArgumentException("Invalid " + QUERY_LIMIT + " in URI: " + uri);
+            }
+        }
+        long start = AlbumMetrics.begin(Operation.PROVIDER_QUERY);
+        try {
+            // Bounds first: the changes read after them can only be newer
+            Bundle extras = new Bundle();
+            Cursor bounds = db.rawQuery(CHANGE_LOG_BOUNDS, null);
+            try {
+                if (bounds.moveToFirst()) {
+                    extras.putLong(EXTRA_OLDEST_SEQ, bounds.getLong(0));
+                    extras.putLong(EXTRA_LATEST_SEQ, bounds.getLong(1));
+                }
+            } finally {
+                bounds.close();
+            }
+            long end = Long.MAX_VALUE;
+            if (limit > 0) {
+                Cursor pageEnd = db.rawQuery(SELECT_CHANGE_PAGE_END,
+                        new String[]{Long.toString(since), Long.toString(limit - 1)});
+                try {
+                    if (pageEnd.moveToFirst()) {
+                        end = pageEnd.getLong(0);
+                    }
+                } finally {
+                    pageEnd.close();
+                }
+            }
+            Cursor c = db.rawQuery(SELECT_CHANGES_SINCE,
+                    new String[]{Long.toString(since), Long.toString(end)});
+            if (c != null) {
+                c.setExtras(extras);
+                c.setNotificationUri(getContext().getContentResolver(), CONTENT_URI);
+            }
+            return c;
+        } finally {
+            AlbumMetrics.end(Operation.PROVIDER_QUERY, start, 0);
+        }
+    }
+
+    /**
+     * Build the SQL for a query on the artists URI: one row per artist with
+     * albums, with its album count, in name order by default
+     */
+    static String buildArtistsQuery(String[] projection, String selection, String sortOrder) {
+        SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+        qb.setTables(ARTISTS_VIEW_NAME);
+        if (projection != null) {
+            qb.setProjectionMap(artistValues);
+        }
+        if (sortOrder == null || sortOrder.isEmpty()) {
+            sortOrder = name + " COLLATE NOCASE";
         }
-        return c;
+        return qb.buildQuery(projection, selection, null, null, sortOrder, null);
+    }
+
+    /**
+     * Build the SQL for a query on albums/by_artist: per artist, the number of
+     * albums and the first and last album added. The grouping runs over the
+     * artist_id index in the database, so only one row per artist is returned
+     * to the caller.
+     */
+    static String buildArtistSummariesQuery(String[] projection, String selection,
+                                            String sortOrder) {
+        SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+        qb.setTables("(" + ARTIST_SUMMARIES + ")");
+        if (projection != null) {
+            qb.setProjectionMap(summaryValues);
+        }
+        if (sortOrder == null || sortOrder.isEmpty()) {
+            sortOrder = artist + " COLLATE NOCASE";
+        }
+        return qb.buildQuery(projection, selection, null, null, sortOrder, null);
+    }
+
+    /**
+     * Full-text search over artist and name. Every word of the search text must
+     * match the start of a word in the album, and albums whose artist or name
+     * starts with the whole search text are ranked first.
+     */
+    private Cursor search(Uri uri) {
+        String query = uri.getQueryParameter(QUERY_SEARCH);
+        String match = query != null ? toFtsQuery(query) : "";
+        if (match.isEmpty()) {
+            return new MatrixCursor(new String[]{id, artistId, artist, name});
+        }
+        int limit = DEFAULT_SEARCH_LIMIT;
+        String limitParameter = uri.getQueryParameter(QUERY_LIMIT);
+        if (limitParameter != null) {
+            long rows = parseLongParameter(uri, QUERY_LIMIT, limitParameter);
+            if (rows <= 0 || rows > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid " + QUERY_LIMIT + " in URI: " + uri);
+            }
+            limit = (int) rows;
+        }
+        String startsWith = escapeLike(query.trim()) + "%";
+        long start = AlbumMetrics.begin(Operation.PROVIDER_SEARCH);
+        try {
+            Cursor c = getDatabase().rawQuery(SEARCH_ALBUMS + limit, new String[]{match, startsWith, startsWith});
+            if (c != null) {
+                c.setNotificationUri(getContext().getContentResolver(), CONTENT_URI);
+            }
+            return c;
+        } finally {
+            AlbumMetrics.end(Operation.PROVIDER_SEARCH, start, 0);
+        }
+    }
+
+    /**
+     * Turn free text into an FTS query that requires every word as a prefix,
+     * dropping punctuation so user input can never form FTS operators
+     */
+    static String toFtsQuery(String query) {
+        StringBuilder match = new StringBuilder();
+        for (String term : query.split("[^\\p{L}\\p{N}]+")) {
+            if (term.isEmpty()) {
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append(term).append('*');
+        }
+        return match.toString();
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
     }
 
     @Override
     public Uri insert(Uri uri, ContentValues values) {
-        Log.d(TAG, "insert called with URI: " + uri);
-        long rowID = db.insert(TABLE_NAME, "", values);
-        if (rowID > 0) {
-            Uri _uri = ContentUris.withAppendedId(CONTENT_URI, rowID);
-            Log.d(TAG, "Insert successful, notifying change for URI: " + CONTENT_URI);
-            getContext().getContentResolver().notifyChange(CONTENT_URI, null);
-            return _uri;
+        SQLiteDatabase db = getDatabase();
+        long start = AlbumMetrics.begin(Operation.PROVIDER_INSERT);
+        long rowID = -1;
+        try {
+            ArtistResolver artists = new ArtistResolver();
+            db.beginTransactionNonExclusive();
+            try {
+                rowID = db.insert(TABLE_NAME, "", toAlbumRow(values, artists));
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                artists.close();
+            }
+            if (rowID > 0) {
+                artists.publish();
+                Uri _uri = ContentUris.withAppendedId(CONTENT_URI, rowID);
+                ChangedRows changed = new ChangedRows(ContentResolver.NOTIFY_INSERT, uri);
+                changed.add(rowID);
+                notifyChange(changed);
+                return _uri;
+            }
+        } finally {
+            AlbumMetrics.end(Operation.PROVIDER_INSERT, start, rowID > 0 ? 1 : 0);
         }
         Log.e(TAG, "Insert failed");
         throw new SQLiteException("Failed to add a record into " + uri);
@@ -116,50 +526,967 @@ public class AlbumProvider extends ContentProvider {
 
     @Override
     public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        Log.d(TAG, "update called with URI: " + uri);
-        int count = db.update(TABLE_NAME, values, selection, selectionArgs);
-        if (count > 0) {
-            Log.d(TAG, "Update successful, notifying change for URI: " + CONTENT_URI);
-            getContext().getContentResolver().notifyChange(CONTENT_URI, null);
+        SQLiteDatabase db = getDatabase();
+        if (uriMatcher.match(uri) == artistAlbumsCode) {
+            if (selection != null || values == null || values.size() != 1
+                    || values.getAsString(artist) == null) {
+                throw new IllegalArgumentException("Only the artist can be set on " + uri);
+            }
+            return changeArtistAlbums(uri, values.getAsString(artist));
+        }
+        if (uriMatcher.match(uri) == itemCode) {
+            if (selection == null && isWholeAlbum(values)) {
+                return updateById(uri, ContentUris.parseId(uri), values);
+            }
+            selection = byIdSelection(uri, selection);
+        }
+        long start = AlbumMetrics.begin(Operation.PROVIDER_UPDATE);
+        ChangedRows changed = new ChangedRows(ContentResolver.NOTIFY_UPDATE, uri);
+        int count = 0;
+        try {
+            // Collect the affected ids in the same transaction so observers can be
+            // told exactly which rows changed
+            ArtistResolver artists = new ArtistResolver();
+            db.beginTransactionNonExclusive();
+            try {
+                collectIds(selection, selectionArgs, changed);
+                count = db.update(TABLE_NAME, toAlbumRow(values, artists),
+                        albumsWhere(selection), selectionArgs);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                artists.close();
+            }
+            artists.publish();
+            if (count > 0) {
+                notifyChange(changed);
+            }
+            return count;
+        } finally {
+            AlbumMetrics.end(Operation.PROVIDER_UPDATE, start, count);
         }
-        return count;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        Log.d(TAG, "delete called with URI: " + uri);
-        int count = db.delete(TABLE_NAME, selection, selectionArgs);
-        if (count > 0) {
-            Log.d(TAG, "Delete successful, notifying change for URI: " + CONTENT_URI);
-            getContext().getContentResolver().notifyChange(CONTENT_URI, null);
+        SQLiteDatabase db = getDatabase();
+        if (uriMatcher.match(uri) == artistAlbumsCode) {
+            if (selection != null) {
+                throw new IllegalArgumentException("Selection not supported on " + uri);
+            }
+            return changeArtistAlbums(uri, null);
+        }
+        if (uriMatcher.match(uri) == itemCode) {
+            if (selection == null) {
+                return deleteById(uri, ContentUris.parseId(uri));
+            }
+            selection = byIdSelection(uri, selection);
+        }
+        long start = AlbumMetrics.begin(Operation.PROVIDER_DELETE);
+        ChangedRows changed = new ChangedRows(ContentResolver.NOTIFY_DELETE, uri);
+        int count = 0;
+        try {
+            db.beginTransactionNonExclusive();
+            try {
+                collectIds(selection, selectionArgs, changed);
+                count = db.delete(TABLE_NAME, albumsWhere(selection), selectionArgs);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (count > 0) {
+                notifyChange(changed);
+            }
+            return count;
+        } finally {
+            AlbumMetrics.end(Operation.PROVIDER_DELETE, start, count);
         }
-        return count;
     }
 
-    private SQLiteDatabase db;
+    /**
+     * Set the artist and name of one album with the cached updateById
+     * statement, so there is no selection to build, parse or pre-query
+     */
+    private int updateById(Uri uri, long rowID, ContentValues values) {
+        SQLiteDatabase db = getDatabase();
+        long start = AlbumMetrics.begin(Operation.PROVIDER_UPDATE);
+        int count = 0;
+        try {
+            ArtistResolver artists = new ArtistResolver();
+            // The statement is shared by binder threads. Its lock is only taken
+            // inside a transaction, that is while holding the one write
+            // connection, so it can never be held by a thread waiting for that
+            // connection.
+            db.beginTransactionNonExclusive();
+            try {
+                long artistID = artists.resolve(values.getAsString(artist));
+                synchronized (updateById) {
+                    updateById.bindLong(1, artistID);
+                    updateById.bindString(2, values.getAsString(name));
+                    updateById.bindLong(3, rowID);
+                    count = updateById.executeUpdateDelete();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                artists.close();
+            }
+            artists.publish();
+            if (count > 0) {
+                ChangedRows changed = new ChangedRows(ContentResolver.NOTIFY_UPDATE, uri);
+                changed.add(rowID);
+                notifyChange(changed);
+            }
+            return count;
+        } finally {
+            AlbumMetrics.end(Operation.PROVIDER_UPDATE, start, count);
+        }
+    }
+
+    // Delete one album with the cached deleteById statement; see updateById
+    private int deleteById(Uri uri, long rowID) {
+        SQLiteDatabase db = getDatabase();
+        long start = AlbumMetrics.begin(Operation.PROVIDER_DELETE);
+        int count = 0;
+        try {
+            db.beginTransactionNonExclusive();
+            try {
+                synchronized (deleteById) {
+                    deleteById.bindLong(1, rowID);
+                    count = deleteById.executeUpdateDelete();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (count > 0) {
+                ChangedRows changed = new ChangedRows(ContentResolver.NOTIFY_DELETE, uri);
+                changed.add(rowID);
+                notifyChange(changed);
+            }
+            return count;
+        } finally {
+            AlbumMetrics.end(Operation.PROVIDER_DELETE, start, count);
+        }
+    }
+
+    /**
+     * Delete the albums of the artist in an artists/<id>/albums URI, or move
+     * them to the artist named newArtist, lowest IDs first. With a limit
+     * parameter at most that many albums change, in one short transaction, so
+     * a large catalog is worked through in chunks that let other writers in
+     * between; the caller repeats until fewer than limit albums change.
+     * Notification waits for that last call, which sends one for the job.
+     */
+    private int changeArtistAlbums(Uri uri, String newArtist) {
+        SQLiteDatabase db = getDatabase();
+        long artistID = artistIdOf(uri);
+        long limit = Long.MAX_VALUE;
+        String limitParameter = uri.getQueryParameter(QUERY_LIMIT);
+        if (limitParameter != null) {
+            limit = parseLongParameter(uri, QUERY_LIMIT, limitParameter);
+            if (limit <= 0) {
+                throw new IllegalArgumentException("Invalid " + QUERY_LIMIT + " in URI: " + uri);
+            }
+        }
+        boolean rename = newArtist != null;
+        Operation operation = rename ? Operation.PROVIDER_UPDATE : Operation.PROVIDER_DELETE;
+        long start = AlbumMetrics.begin(operation);
+        ChangedRows changed = new ChangedRows(
+                rename ? ContentResolver.NOTIFY_UPDATE : ContentResolver.NOTIFY_DELETE, uri);
+        int count = 0;
+        try {
+            ArtistResolver artists = new ArtistResolver();
+            SQLiteStatement statement = null;
+            db.beginTransactionNonExclusive();
+            try {
+                long targetID = rename ? artists.resolve(newArtist) : 0;
+                // Renaming to the current name leaves nothing to move
+                if (!rename || targetID != artistID) {
+                    String[] args = {Long.toString(artistID), Long.toString(limit)};
+                    Cursor c = db.rawQuery(SELECT_ARTIST_ALBUM_IDS, args);
+                    try {
+                        while (c.moveToNext()) {
+                            changed.add(c.getLong(0));
+                        }
+                    } finally {
+                        c.close();
+                    }
+                    statement = db.compileStatement(rename ? MOVE_ARTIST_ALBUMS : DELETE_ARTIST_ALBUMS);
+                    int index = 1;
+                    if (rename) {
+                        statement.bindLong(index++, targetID);
+                    }
+                    statement.bindLong(index++, artistID);
+                    statement.bindLong(index, limit);
+                    count = statement.executeUpdateDelete();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                if (statement != null) {
+                    statement.close();
+                }
+                artists.close();
+            }
+            artists.publish();
+            if (count < limit) {
+                if (uri.getBooleanQueryParameter(QUERY_CONTINUED, false)) {
+                    // The rows of earlier calls are not known here
+                    changed.addAllRows();
+                }
+                notifyChange(changed);
+            }
+            return count;
+        } finally {
+            AlbumMetrics.end(operation, start, count);
+        }
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        SQLiteDatabase db = getDatabase();
+        if (uriMatcher.match(uri) != uriCode) {
+            throw new IllegalArgumentException("Unsupported URI: " + uri);
+        }
+        long start = AlbumMetrics.begin(Operation.PROVIDER_BULK_INSERT);
+        ChangedRows changed = new ChangedRows(ContentResolver.NOTIFY_INSERT, uri);
+        int count = 0;
+        try {
+            // One compiled statement and one transaction for the whole batch instead
+            // of an implicit transaction and SQL parse per row
+            ArtistResolver artists = new ArtistResolver();
+            SQLiteStatement statement = db.compileStatement(INSERT_ALBUM);
+            db.beginTransactionNonExclusive();
+            try {
+                for (ContentValues row : values) {
+                    statement.clearBindings();
+                    String artistName = row.getAsString(artist);
+                    if (artistName != null) {
+                        statement.bindLong(1, artists.resolve(artistName));
+                    } else {
+                        statement.bindNull(1);
+                    }
+                    bindText(statement, 2, row.getAsString(name));
+                    long rowID = statement.executeInsert();
+                    if (rowID > 0) {
+                        changed.add(rowID);
+                        count++;
+                    }
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                statement.close();
+                artists.close();
+            }
+            artists.publish();
+            if (count > 0) {
+                notifyChange(changed);
+            }
+            return count;
+        } finally {
+            AlbumMetrics.end(Operation.PROVIDER_BULK_INSERT, start, count);
+        }
+    }
+
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        long start = AlbumMetrics.begin(Operation.PROVIDER_APPLY_BATCH);
+        try {
+            ChangedRows batch = new ChangedRows(0, null);
+            batchState.set(batch);
+            ContentProviderResult[] results;
+            SQLiteDatabase db = getDatabase();
+            db.beginTransactionNonExclusive();
+            try {
+                results = super.applyBatch(operations);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                batchState.remove();
+            }
+            dispatchChange(batch);
+            return results;
+        } finally {
+            AlbumMetrics.end(Operation.PROVIDER_APPLY_BATCH, start, operations.size());
+        }
+    }
+
+    /**
+     * Stream every album to the caller in the AlbumArchive format named by the
+     * format parameter of the export URI. Rows are read in id order a page at a
+     * time on a background thread and written straight into the pipe, so the
+     * library is never held in memory and no read transaction spans the export.
+     * The pipe is reliable: an export that fails part way closes it with an
+     * error, which the reader sees from ParcelFileDescriptor.checkError()
+     * instead of a short but apparently complete stream.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (uriMatcher.match(uri) != exportCode) {
+            throw new FileNotFoundException("Unsupported URI: " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Export is read-only: " + uri);
+        }
+        AlbumArchive.Format format =
+                AlbumArchive.Format.fromParameter(uri.getQueryParameter(QUERY_FORMAT));
+        ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createReliablePipe();
+        } catch (IOException e) {
+            FileNotFoundException error = new FileNotFoundException("Could not open export pipe");
+            error.initCause(e);
+            throw error;
+        }
+        ParcelFileDescriptor output = pipe[1];
+        new Thread(() -> writeExport(output, format), TAG + ".export").start();
+        return pipe[0];
+    }
+
+    private void writeExport(ParcelFileDescriptor output, AlbumArchive.Format format) {
+        long start = AlbumMetrics.begin(Operation.PROVIDER_EXPORT);
+        int count = 0;
+        String error = null;
+        // Not closed through the stream: output is closed below, with or without an error
+        FileOutputStream out = new FileOutputStream(output.getFileDescriptor());
+        try (AlbumArchive.Writer writer = format.newWriter(out.getChannel())) {
+            long lastId = 0;
+            int page;
+            do {
+                page = 0;
+                Cursor c = getDatabase().rawQuery(EXPORT_ALBUMS_PAGE, new String[]{String.valueOf(lastId)});
+                try {
+                    while (c.moveToNext()) {
+                        lastId = c.getLong(0);
+                        writer.write(lastId, c.getString(1), c.getString(2));
+                        page++;
+                    }
+                } finally {
+                    c.close();
+                }
+                count += page;
+            } while (page == EXPORT_PAGE_SIZE);
+            writer.finish();
+        } catch (IOException | RuntimeException e) {
+            // An IOException is usually the reader closing its end early; anything
+            // else must not escape this thread, where it would kill the process
+            Log.w(TAG, "Export stopped after " + count + " albums", e);
+            error = "Export failed after " + count + " albums: " + e;
+        } finally {
+            AlbumMetrics.end(Operation.PROVIDER_EXPORT, start, count);
+            try {
+                if (error == null) {
+                    output.close();
+                } else {
+                    output.closeWithError(error);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing export pipe", e);
+            }
+        }
+    }
+
+    /**
+     * Print the metrics of this process, via
+     * adb shell dumpsys activity provider com.example.albummanager/.AlbumProvider [enable|disable|reset]
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (args != null && args.length > 0) {
+            switch (args[0]) {
+                case "enable":
+                    AlbumMetrics.setEnabled(true);
+                    break;
+                case "disable":
+                    AlbumMetrics.setEnabled(false);
+                    break;
+                case "reset":
+                    AlbumMetrics.reset();
+                    break;
+                default:
+                    writer.println("Unknown argument: " + args[0]);
+                    break;
+            }
+        }
+        AlbumMetrics.dump(writer);
+    }
+
+    private void collectIds(String selection, String[] selectionArgs, ChangedRows changed) {
+        Cursor c = getDatabase().query(ALBUMS_VIEW_NAME, new String[]{id}, selection, selectionArgs,
+                null, null, null);
+        try {
+            while (c.moveToNext()) {
+                changed.add(c.getLong(0));
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Notify observers of changed rows, or defer it to the end of the batch when
+     * called from within applyBatch on this thread
+     */
+    private void notifyChange(ChangedRows changed) {
+        ChangedRows batch = batchState.get();
+        if (batch != null) {
+            batch.addAll(changed);
+            return;
+        }
+        dispatchChange(changed);
+    }
+
+    /**
+     * Notify each changed row as albums/<id> with the kind of change in the
+     * flags. Observers of the albums URI see these as descendant changes. Large
+     * changes fall back to a single notification for the whole table. The token
+     * of the write, if any, is echoed on every notified URI.
+     */
+    private void dispatchChange(ChangedRows changed) {
+        if (changed.isEmpty()) {
+            return;
+        }
+        ContentResolver resolver = getContext().getContentResolver();
+        boolean perRow = !changed.overflow;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            List<Uri> uris = new ArrayList<>();
+            if (perRow) {
+                for (long rowID : changed.ids) {
+                    uris.add(changed.tag(ContentUris.withAppendedId(CONTENT_URI, rowID)));
+                }
+            } else {
+                uris.add(changed.tag(CONTENT_URI));
+            }
+            resolver.notifyChange(uris, null, changed.flags);
+        } else if (perRow) {
+            for (long rowID : changed.ids) {
+                resolver.notifyChange(changed.tag(ContentUris.withAppendedId(CONTENT_URI, rowID)), null);
+            }
+        } else {
+            resolver.notifyChange(changed.tag(CONTENT_URI), null);
+        }
+    }
+
+    /**
+     * Selections are written against the columns of ALBUMS_VIEW_NAME, which
+     * include the artist name; apply one to the Albums table by album ID
+     */
+    private static String albumsWhere(String selection) {
+        if (selection == null || selection.isEmpty()) {
+            return selection;
+        }
+        return id + " IN (SELECT " + id + " FROM " + ALBUMS_VIEW_NAME + " WHERE " + selection + ")";
+    }
+
+    // True if values set exactly the artist and name, both non-null, which is
+    // what updateById binds
+    private static boolean isWholeAlbum(ContentValues values) {
+        return values != null && values.size() == 2
+                && values.getAsString(artist) != null && values.getAsString(name) != null;
+    }
+
+    // The artist ID of an artists/<id>/albums URI
+    private static long artistIdOf(Uri uri) {
+        return parseLongParameter(uri, "artist ID", uri.getPathSegments().get(1));
+    }
+
+    // Restrict a selection on albums/<id> to that album
+    private static String byIdSelection(Uri uri, String selection) {
+        String byId = id + " = " + ContentUris.parseId(uri);
+        if (selection == null || selection.isEmpty()) {
+            return byId;
+        }
+        return byId + " AND (" + selection + ")";
+    }
+
+    // Replace the artist name in values with the ID of its Artists row
+    private static ContentValues toAlbumRow(ContentValues values, ArtistResolver artists) {
+        if (values == null || !values.containsKey(artist)) {
+            return values;
+        }
+        ContentValues row = new ContentValues(values);
+        String artistName = row.getAsString(artist);
+        row.remove(artist);
+        if (artistName != null) {
+            row.put(artistId, artists.resolve(artistName));
+        } else {
+            row.putNull(artistId);
+        }
+        return row;
+    }
+
+    private static long parseLongParameter(Uri uri, String parameter, String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + parameter + " in URI: " + uri);
+        }
+    }
+
+    private static void bindText(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * Finds or adds the Artists row for each artist name written by one
+     * provider call. IDs go into artistIds only once that call's transaction
+     * has committed on its own, so an artist added by a write that rolls back,
+     * including one inside an applyBatch, is never handed out from the cache.
+     */
+    private class ArtistResolver {
+        private final boolean nested = getDatabase().inTransaction();
+        private final Map<String, Long> resolved = new HashMap<>();
+        private SQLiteStatement select;
+        private SQLiteStatement insert;
+
+        long resolve(String artistName) {
+            Long artistID = resolved.get(artistName);
+            if (artistID == null) {
+                artistID = artistIds.get(artistName);
+            }
+            if (artistID == null) {
+                artistID = lookUp(artistName);
+                resolved.put(artistName, artistID);
+            }
+            return artistID;
+        }
+
+        private long lookUp(String artistName) {
+            if (select == null) {
+                SQLiteDatabase db = getDatabase();
+                select = db.compileStatement(SELECT_ARTIST_ID);
+                insert = db.compileStatement(INSERT_ARTIST);
+            }
+            select.bindString(1, artistName);
+            try {
+                return select.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                insert.bindString(1, artistName);
+                return insert.executeInsert();
+            }
+        }
+
+        // Call once the transaction these IDs were resolved in has committed
+        void publish() {
+            if (nested) {
+                return;
+            }
+            for (Map.Entry<String, Long> entry : resolved.entrySet()) {
+                artistIds.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        void close() {
+            if (select != null) {
+                select.close();
+                insert.close();
+            }
+        }
+    }
+
+    // Row ids touched by a change, along with the ContentResolver.NOTIFY_* flags
+    // describing it and the token of the write that made it. Past
+    // MAX_ROW_NOTIFICATIONS rows the ids are dropped and the change is reported
+    // for the whole table instead.
+    private static class ChangedRows {
+        final List<Long> ids = new ArrayList<>();
+        int flags;
+        boolean overflow;
+        String token;
+
+        ChangedRows(int flags, Uri uri) {
+            this.flags = flags;
+            this.token = uri != null ? uri.getQueryParameter(QUERY_TOKEN) : null;
+        }
+
+        void add(long rowID) {
+            if (overflow) {
+                return;
+            }
+            if (ids.size() == MAX_ROW_NOTIFICATIONS) {
+                overflow = true;
+                ids.clear();
+                return;
+            }
+            ids.add(rowID);
+        }
+
+        void addAll(ChangedRows other) {
+            if (other.isEmpty()) {
+                return;
+            }
+            // A batch keeps a token only if every write in it carried the same one
+            token = isEmpty() || Objects.equals(token, other.token) ? other.token : null;
+            flags |= other.flags;
+            if (other.overflow) {
+                overflow = true;
+                ids.clear();
+                return;
+            }
+            for (long rowID : other.ids) {
+                add(rowID);
+            }
+        }
+
+        // Report the change for the whole table
+        void addAllRows() {
+            overflow = true;
+            ids.clear();
+        }
+
+        boolean isEmpty() {
+            return !overflow && ids.isEmpty();
+        }
+
+        Uri tag(Uri uri) {
+            if (token == null) {
+                return uri;
+            }
+            return uri.buildUpon().appendQueryParameter(QUERY_TOKEN, token).build();
+        }
+    }
+
+    private final ThreadLocal<ChangedRows> batchState = new ThreadLocal<>();
+
+    private DatabaseHelper dbHelper;
+    // Opened on first use by getDatabase(); read it through that method
+    private volatile SQLiteDatabase db;
+    // Compiled once with the database for the albums/<id> fast path; each is
+    // used under its own lock because binding and executing are not atomic
+    private SQLiteStatement updateById;
+    private SQLiteStatement deleteById;
+    private final LruCache<String, Long> artistIds = new LruCache<>(ARTIST_ID_CACHE_SIZE);
     static final String DATABASE_NAME = "AlbumDB";
     static final String TABLE_NAME = "Albums";
-    static final int DATABASE_VERSION = 1;
+    static final int DATABASE_VERSION = 5;
+    // The version 1 table, the starting point of MIGRATIONS
     static final String CREATE_DB_TABLE = " CREATE TABLE " + TABLE_NAME
             + " (id INTEGER PRIMARY KEY AUTOINCREMENT, artist TEXT NOT NULL,"
             + " name TEXT NOT NULL);";
+    static final String INSERT_ALBUM = "INSERT INTO " + TABLE_NAME
+            + " (artist_id, name) VALUES (?, ?)";
+
+    // Since version 4 each artist name is stored once, in Artists, and Albums
+    // refers to it by artist_id. Reads go through ALBUMS_VIEW_NAME, which puts
+    // the name back in an artist column so the albums URI keeps its columns.
+    static final String ARTISTS_TABLE_NAME = "Artists";
+    static final String ALBUMS_VIEW_NAME = "AlbumsView";
+    static final String ARTISTS_VIEW_NAME = "ArtistsView";
+    static final String SELECT_ARTIST_ID = "SELECT id FROM " + ARTISTS_TABLE_NAME
+            + " WHERE name = ?";
+    static final String INSERT_ARTIST = "INSERT INTO " + ARTISTS_TABLE_NAME
+            + " (name) VALUES (?)";
+
+    // Statements behind the albums/<id> fast path; ITEM_COLUMNS are the columns
+    // SELECT_ALBUM_BY_ID returns, in order
+    static final String[] ITEM_COLUMNS = {id, artistId, artist, name};
+    static final String SELECT_ALBUM_BY_ID = "SELECT id, artist_id, artist, name FROM "
+            + ALBUMS_VIEW_NAME + " WHERE id = ?";
+    static final String UPDATE_ALBUM_BY_ID = "UPDATE " + TABLE_NAME
+            + " SET artist_id = ?, name = ? WHERE id = ?";
+    static final String DELETE_ALBUM_BY_ID = "DELETE FROM " + TABLE_NAME + " WHERE id = ?";
+
+    // One chunk of the albums of an artist, lowest IDs first, read from the
+    // artist_id index; bind the artist ID and the chunk size
+    static final String SELECT_ARTIST_ALBUM_IDS = "SELECT id FROM " + TABLE_NAME
+            + " WHERE artist_id = ? ORDER BY id LIMIT ?";
+    static final String DELETE_ARTIST_ALBUMS = "DELETE FROM " + TABLE_NAME + " WHERE id IN ("
+            + SELECT_ARTIST_ALBUM_IDS + ")";
+    static final String MOVE_ARTIST_ALBUMS = "UPDATE " + TABLE_NAME + " SET artist_id = ?"
+            + " WHERE id IN (" + SELECT_ARTIST_ALBUM_IDS + ")";
+
+    // Since version 5 triggers append a row to CHANGES_TABLE_NAME for every
+    // album inserted, updated or deleted, in the transaction that changed it.
+    // The change values match AlbumManager.CHANGE_*.
+    static final String CHANGES_TABLE_NAME = "AlbumChanges";
+    // change log rows kept; older ones are pruned a thousand at a time
+    static final int CHANGE_LOG_SIZE = 10000;
+    static final String CHANGE_LOG_BOUNDS = "SELECT IFNULL(MIN(seq), 0), IFNULL(MAX(seq), 0) FROM "
+            + CHANGES_TABLE_NAME;
+    // The seq of the Nth change after a seq, binding the seq and N - 1: the
+    // last change of a page of N log rows
+    static final String SELECT_CHANGE_PAGE_END = "SELECT seq FROM " + CHANGES_TABLE_NAME
+            + " WHERE seq > ? ORDER BY seq LIMIT 1 OFFSET ?";
+    // The changes in a seq range, binding the seq to read after and the last
+    // seq to read. Each change value is a single bit, so SUM(DISTINCT) is
+    // their bitwise OR. Joins the tables rather than ALBUMS_VIEW_NAME so that
+    // each album is a primary key lookup.
+    static final String SELECT_CHANGES_SINCE = "SELECT c.seq AS seq, c.album_id AS album_id,"
+            + " c.changes AS changes, a.artist_id AS artist_id, r.name AS artist, a.name AS name"
+            + " FROM (SELECT MAX(seq) AS seq, album_id, SUM(DISTINCT change) AS changes FROM "
+            + CHANGES_TABLE_NAME + " WHERE seq > ? AND seq <= ? GROUP BY album_id) c"
+            + " LEFT JOIN " + TABLE_NAME + " a ON a.id = c.album_id"
+            + " LEFT JOIN " + ARTISTS_TABLE_NAME + " r ON r.id = a.artist_id"
+            + " ORDER BY c.seq";
+
+    // External-content FTS4 index over Albums, kept in sync by triggers
+    static final String FTS_TABLE_NAME = "AlbumsFts";
+    static final String CREATE_FTS_TABLE = "CREATE VIRTUAL TABLE " + FTS_TABLE_NAME
+            + " USING fts4(content=\"" + TABLE_NAME + "\", artist, name,"
+            + " prefix=\"2,3\", tokenize=unicode61);";
+    static final String[] CREATE_FTS_TRIGGERS = {
+            "CREATE TRIGGER " + TABLE_NAME + "_fts_bd BEFORE DELETE ON " + TABLE_NAME
+                    + " BEGIN DELETE FROM " + FTS_TABLE_NAME + " WHERE docid = old.id; END;",
+            "CREATE TRIGGER " + TABLE_NAME + "_fts_bu BEFORE UPDATE ON " + TABLE_NAME
+                    + " BEGIN DELETE FROM " + FTS_TABLE_NAME + " WHERE docid = old.id; END;",
+            "CREATE TRIGGER " + TABLE_NAME + "_fts_ai AFTER INSERT ON " + TABLE_NAME
+                    + " BEGIN INSERT INTO " + FTS_TABLE_NAME + " (docid, artist, name)"
+                    + " VALUES (new.id, new.artist, new.name); END;",
+            "CREATE TRIGGER " + TABLE_NAME + "_fts_au AFTER UPDATE ON " + TABLE_NAME
+                    + " BEGIN INSERT INTO " + FTS_TABLE_NAME + " (docid, artist, name)"
+                    + " VALUES (new.id, new.artist, new.name); END;"
+    };
+    static final String REBUILD_FTS = "INSERT INTO " + FTS_TABLE_NAME
+            + " (" + FTS_TABLE_NAME + ") VALUES ('rebuild');";
+    // the LIMIT is appended by the caller after validation
+    static final String SEARCH_ALBUMS = "SELECT a.id, a.artist_id, a.artist, a.name FROM "
+            + FTS_TABLE_NAME + " JOIN " + ALBUMS_VIEW_NAME + " a ON a.id = " + FTS_TABLE_NAME + ".docid"
+            + " WHERE " + FTS_TABLE_NAME + " MATCH ?"
+            + " ORDER BY CASE WHEN a.artist LIKE ? ESCAPE '\\' OR a.name LIKE ? ESCAPE '\\'"
+            + " THEN 0 ELSE 1 END, a.name COLLATE NOCASE, a.id LIMIT ";
+
+    // One row per artist; selections and sort orders are applied around it
+    static final String ARTIST_SUMMARIES = "SELECT s.artist_id AS artist_id, r.name AS artist,"
+            + " s.album_count AS album_count, s.first_album_id AS first_album_id,"
+            + " f.name AS first_album, s.last_album_id AS last_album_id, l.name AS last_album"
+            + " FROM (SELECT artist_id, COUNT(*) AS album_count, MIN(id) AS first_album_id,"
+            + " MAX(id) AS last_album_id FROM " + TABLE_NAME + " GROUP BY artist_id) s"
+            + " JOIN " + ARTISTS_TABLE_NAME + " r ON r.id = s.artist_id"
+            + " JOIN " + TABLE_NAME + " f ON f.id = s.first_album_id"
+            + " JOIN " + TABLE_NAME + " l ON l.id = s.last_album_id";
+
+    static final String EXPORT_ALBUMS_PAGE = "SELECT id, artist, name FROM " + ALBUMS_VIEW_NAME
+            + " WHERE id > ? ORDER BY id LIMIT " + EXPORT_PAGE_SIZE;
+
+    // Indexes for filtering and sorting by artist or name; the NOCASE variants
+    // serve case-insensitive comparisons and ORDER BY ... COLLATE NOCASE
+    static final String[] CREATE_INDEXES = {
+            "CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_artist ON " + TABLE_NAME + " (artist);",
+            "CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_artist_nocase ON " + TABLE_NAME
+                    + " (artist COLLATE NOCASE);",
+            "CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_name ON " + TABLE_NAME + " (name);",
+            "CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_name_nocase ON " + TABLE_NAME
+                    + " (name COLLATE NOCASE);"
+    };
+
+    // The version 4 tables. Albums refers to its artist by ID; the names live
+    // once in Artists.
+    static final String CREATE_ARTISTS_TABLE = "CREATE TABLE " + ARTISTS_TABLE_NAME
+            + " (id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT NOT NULL UNIQUE);";
+    static final String ALBUMS_COLUMNS = " (id INTEGER PRIMARY KEY AUTOINCREMENT,"
+            + " artist_id INTEGER NOT NULL REFERENCES " + ARTISTS_TABLE_NAME + " (id),"
+            + " name TEXT NOT NULL);";
+
+    // Everything built on the version 4 tables: indexes, views, the FTS index
+    // over the albums view and the triggers that keep it in sync
+    static final String[] ARTIST_SCHEMA = {
+            "CREATE INDEX " + TABLE_NAME + "_artist_id ON " + TABLE_NAME + " (artist_id);",
+            "CREATE INDEX " + TABLE_NAME + "_name ON " + TABLE_NAME + " (name);",
+            "CREATE INDEX " + TABLE_NAME + "_name_nocase ON " + TABLE_NAME + " (name COLLATE NOCASE);",
+            "CREATE INDEX " + ARTISTS_TABLE_NAME + "_name_nocase ON " + ARTISTS_TABLE_NAME
+                    + " (name COLLATE NOCASE);",
+            // rowid lets the view serve as the FTS external content table
+            "CREATE VIEW " + ALBUMS_VIEW_NAME + " AS SELECT a.id AS rowid, a.id AS id,"
+                    + " a.artist_id AS artist_id, r.name AS artist, a.name AS name FROM "
+                    + TABLE_NAME + " a JOIN " + ARTISTS_TABLE_NAME + " r ON r.id = a.artist_id;",
+            "CREATE VIEW " + ARTISTS_VIEW_NAME + " AS SELECT r.id AS id, r.name AS name,"
+                    + " COUNT(*) AS album_count FROM " + ARTISTS_TABLE_NAME + " r JOIN "
+                    + TABLE_NAME + " a ON a.artist_id = r.id GROUP BY r.id;",
+            "CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts4(content=\"" + ALBUMS_VIEW_NAME
+                    + "\", artist, name, prefix=\"2,3\", tokenize=unicode61);",
+            "CREATE TRIGGER " + TABLE_NAME + "_fts_bd BEFORE DELETE ON " + TABLE_NAME
+                    + " BEGIN DELETE FROM " + FTS_TABLE_NAME + " WHERE docid = old.id; END;",
+            "CREATE TRIGGER " + TABLE_NAME + "_fts_bu BEFORE UPDATE ON " + TABLE_NAME
+                    + " BEGIN DELETE FROM " + FTS_TABLE_NAME + " WHERE docid = old.id; END;",
+            "CREATE TRIGGER " + TABLE_NAME + "_fts_ai AFTER INSERT ON " + TABLE_NAME
+                    + " BEGIN INSERT INTO " + FTS_TABLE_NAME + " (docid, artist, name)"
+                    + " SELECT new.id, name, new.name FROM " + ARTISTS_TABLE_NAME
+                    + " WHERE id = new.artist_id; END;",
+            "CREATE TRIGGER " + TABLE_NAME + "_fts_au AFTER UPDATE ON " + TABLE_NAME
+                    + " BEGIN INSERT INTO " + FTS_TABLE_NAME + " (docid, artist, name)"
+                    + " SELECT new.id, name, new.name FROM " + ARTISTS_TABLE_NAME
+                    + " WHERE id = new.artist_id; END;",
+            // renaming an artist re-indexes each of its albums
+            "CREATE TRIGGER " + ARTISTS_TABLE_NAME + "_fts_bu BEFORE UPDATE OF name ON "
+                    + ARTISTS_TABLE_NAME + " BEGIN DELETE FROM " + FTS_TABLE_NAME
+                    + " WHERE docid IN (SELECT id FROM " + TABLE_NAME
+                    + " WHERE artist_id = old.id); END;",
+            "CREATE TRIGGER " + ARTISTS_TABLE_NAME + "_fts_au AFTER UPDATE OF name ON "
+                    + ARTISTS_TABLE_NAME + " BEGIN INSERT INTO " + FTS_TABLE_NAME
+                    + " (docid, artist, name) SELECT id, new.name, name FROM " + TABLE_NAME
+                    + " WHERE artist_id = new.id; END;"
+    };
+
+    // 3 -> 4: move artist names into Artists. SQLite cannot drop a column, so
+    // Albums is rebuilt, keeping its ids and AUTOINCREMENT sequence, and the
+    // FTS index is recreated over the view since its text now spans two tables.
+    static final String[] NORMALIZE_ARTISTS = concat(new String[]{
+            CREATE_ARTISTS_TABLE,
+            "INSERT INTO " + ARTISTS_TABLE_NAME + " (name) SELECT artist FROM " + TABLE_NAME
+                    + " GROUP BY artist ORDER BY MIN(id);",
+            "DROP TABLE " + FTS_TABLE_NAME + ";",
+            "CREATE TABLE " + TABLE_NAME + "_v4" + ALBUMS_COLUMNS,
+            "INSERT INTO " + TABLE_NAME + "_v4 (id, artist_id, name) SELECT a.id, r.id, a.name FROM "
+                    + TABLE_NAME + " a JOIN " + ARTISTS_TABLE_NAME + " r ON r.name = a.artist;",
+            "DELETE FROM sqlite_sequence WHERE name = '" + TABLE_NAME + "_v4';",
+            "UPDATE sqlite_sequence SET name = '" + TABLE_NAME + "_v4' WHERE name = '"
+                    + TABLE_NAME + "';",
+            // also drops the version 2 triggers and version 3 indexes
+            "DROP TABLE " + TABLE_NAME + ";",
+            "ALTER TABLE " + TABLE_NAME + "_v4 RENAME TO " + TABLE_NAME + ";"
+    }, ARTIST_SCHEMA, new String[]{REBUILD_FTS});
+
+    static final String CREATE_CHANGES_TABLE = "CREATE TABLE " + CHANGES_TABLE_NAME
+            + " (seq INTEGER PRIMARY KEY AUTOINCREMENT, album_id INTEGER NOT NULL,"
+            + " change INTEGER NOT NULL);";
+    static final String[] CHANGE_LOG_TRIGGERS = {
+            "CREATE TRIGGER " + TABLE_NAME + "_log_ai AFTER INSERT ON " + TABLE_NAME
+                    + " BEGIN INSERT INTO " + CHANGES_TABLE_NAME
+                    + " (album_id, change) VALUES (new.id, 1); END;",
+            "CREATE TRIGGER " + TABLE_NAME + "_log_au AFTER UPDATE ON " + TABLE_NAME
+                    + " BEGIN INSERT INTO " + CHANGES_TABLE_NAME
+                    + " (album_id, change) VALUES (new.id, 2); END;",
+            "CREATE TRIGGER " + TABLE_NAME + "_log_ad AFTER DELETE ON " + TABLE_NAME
+                    + " BEGIN INSERT INTO " + CHANGES_TABLE_NAME
+                    + " (album_id, change) VALUES (old.id, 4); END;",
+            // renaming an artist changes the artist of each of its albums
+            "CREATE TRIGGER " + ARTISTS_TABLE_NAME + "_log_au AFTER UPDATE OF name ON "
+                    + ARTISTS_TABLE_NAME + " BEGIN INSERT INTO " + CHANGES_TABLE_NAME
+                    + " (album_id, change) SELECT id, 2 FROM " + TABLE_NAME
+                    + " WHERE artist_id = new.id; END;",
+            "CREATE TRIGGER " + CHANGES_TABLE_NAME + "_prune AFTER INSERT ON " + CHANGES_TABLE_NAME
+                    + " WHEN new.seq % 1000 = 0 BEGIN DELETE FROM " + CHANGES_TABLE_NAME
+                    + " WHERE seq <= new.seq - " + CHANGE_LOG_SIZE + "; END;"
+    };
+
+    // 4 -> 5: change log
+    static final String[] LOG_CHANGES = concat(new String[]{
+            CREATE_CHANGES_TABLE,
+            // existing albums are logged as inserts so that reading from 0 covers them
+            "INSERT INTO " + CHANGES_TABLE_NAME + " (album_id, change) SELECT id, 1 FROM "
+                    + TABLE_NAME + " ORDER BY id;"
+    }, CHANGE_LOG_TRIGGERS);
+
+    // The current schema, created directly on a fresh install. Must match what
+    // MIGRATIONS produce from version 1; AlbumMigrationTest compares the two.
+    static final String[] CREATE_SCHEMA = concat(new String[]{
+            CREATE_ARTISTS_TABLE,
+            "CREATE TABLE " + TABLE_NAME + ALBUMS_COLUMNS
+    }, ARTIST_SCHEMA, new String[]{CREATE_CHANGES_TABLE}, CHANGE_LOG_TRIGGERS);
+
+    private static String[] concat(String[]... parts) {
+        List<String> statements = new ArrayList<>();
+        for (String[] part : parts) {
+            statements.addAll(Arrays.asList(part));
+        }
+        return statements.toArray(new String[0]);
+    }
+
+    /**
+     * One schema step. MIGRATIONS[i] upgrades a database from version i + 1 to
+     * version i + 2 and must keep every existing row.
+     */
+    interface Migration {
+        void migrate(SQLiteDatabase db);
+    }
+
+    static final Migration[] MIGRATIONS = {
+            // 1 -> 2: full-text search index, populated from the existing rows
+            db -> {
+                db.execSQL(CREATE_FTS_TABLE);
+                for (String trigger : CREATE_FTS_TRIGGERS) {
+                    db.execSQL(trigger);
+                }
+                db.execSQL(REBUILD_FTS);
+            },
+            // 2 -> 3: artist and name indexes
+            db -> {
+                for (String index : CREATE_INDEXES) {
+                    db.execSQL(index);
+                }
+            },
+            // 3 -> 4: normalized artists
+            db -> {
+                for (String statement : NORMALIZE_ARTISTS) {
+                    db.execSQL(statement);
+                }
+            },
+            // 4 -> 5: change log
+            db -> {
+                for (String statement : LOG_CHANGES) {
+                    db.execSQL(statement);
+                }
+            }
+    };
+
+    static class DatabaseHelper extends SQLiteOpenHelper {
+        private final StorageProfile profile;
+
+        DatabaseHelper(Context context, StorageProfile profile) {
+            this(context, DATABASE_NAME, profile);
+        }
+
+        DatabaseHelper(Context context, String databaseName, StorageProfile profile) {
+            super(context, databaseName, null, DATABASE_VERSION);
+            this.profile = profile;
+            // In WAL mode the connection pool serves reads on separate
+            // connections, so queries run while a bulk write is in progress
+            setWriteAheadLoggingEnabled(profile.isWriteAheadLogging());
+        }
 
-    private static class DatabaseHelper extends SQLiteOpenHelper {
-        DatabaseHelper(Context context) {
-            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        @Override
+        public void onConfigure(SQLiteDatabase db) {
+            Log.d(TAG, "Configuring database with " + profile);
+            if (profile.getPageSize() > 0 && db.getVersion() == 0) {
+                // Only takes effect before the first table is created
+                db.setPageSize(profile.getPageSize());
+            }
+            // These pragmas only apply to the primary connection, which the
+            // pool uses for every write. In WAL mode the read-only connections
+            // keep the SQLite default cache size, and never commit, so their
+            // synchronous setting does not matter.
+            if (profile.getCacheSizeKb() > 0) {
+                // A negative cache_size is a size in KiB rather than in pages
+                db.execSQL("PRAGMA cache_size = -" + profile.getCacheSizeKb());
+            }
+            db.execSQL("PRAGMA synchronous = " + profile.getSynchronous());
+            db.setForeignKeyConstraintsEnabled(true);
         }
 
         @Override
         public void onCreate(SQLiteDatabase db) {
             Log.d(TAG, "Creating database table");
-            db.execSQL(CREATE_DB_TABLE);
+            createSchema(db);
         }
 
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
             Log.d(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion);
-            db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
-            onCreate(db);
+            migrate(db, oldVersion, newVersion);
+        }
+
+        /**
+         * Create the current schema directly, without replaying MIGRATIONS,
+         * which are only for upgrades
+         */
+        static void createSchema(SQLiteDatabase db) {
+            for (String statement : CREATE_SCHEMA) {
+                db.execSQL(statement);
+            }
+        }
+
+        static void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+            for (int version = fromVersion; version < toVersion; version++) {
+                Log.d(TAG, "Migrating database from version " + version + " to " + (version + 1));
+                MIGRATIONS[version - 1].migrate(db);
+            }
         }
     }
 }
@@ -0,0 +1,262 @@
+package com.example.albummanager;
+
+import android.os.Process;
+import android.util.Log;
+
+import com.example.albummanager.model.Album;
+import com.example.albummanager.model.AlbumChange;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Optional in-process copy of every album, for callers that read the whole
+ * library often. Reads return the current Snapshot, an immutable array of
+ * albums in ID order, with no IPC, no lock and no copying, so a reader always
+ * sees one consistent state however long it holds on to it.
+ *
+ * The replica is loaded once and then brought up to date from the provider's
+ * change log whenever a change notification arrives, whichever process made
+ * the change. Each update builds a new array and publishes it with a single
+ * volatile write. It trails the provider by one notification and one change
+ * log read; call sync() to wait for a write that must be visible.
+ *
+ * The albums in a snapshot are shared by every reader and must not be modified.
+ */
+public class AlbumReplica {
+    private static final String TAG = "AlbumReplica";
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    private static final Comparator<Album> BY_ID = (a, b) -> Long.compare(a.getId(), b.getId());
+
+    /**
+     * Every album at one point in the change log, in ID order
+     */
+    public static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new Album[0], 0);
+
+        private final Album[] albums;
+        private final long seq;
+        private final List<Album> view;
+
+        Snapshot(Album[] albums, long seq) {
+            this.albums = albums;
+            this.seq = seq;
+            this.view = new AlbumList(albums);
+        }
+
+        // The change log sequence number this snapshot is current up to
+        public long getSeq() {
+            return seq;
+        }
+
+        public int size() {
+            return albums.length;
+        }
+
+        public Album get(int index) {
+            return albums[index];
+        }
+
+        /**
+         * Find an album by ID with a binary search
+         * @return The album, or null if it is not in this snapshot
+         */
+        public Album find(long id) {
+            int index = indexOf(albums, id);
+            return index >= 0 ? albums[index] : null;
+        }
+
+        // A read-only list over the albums, without copying them
+        public List<Album> asList() {
+            return view;
+        }
+
+        // The albums in ID order, splitting evenly for parallel streams
+        public Stream<Album> stream() {
+            return Arrays.stream(albums);
+        }
+
+        /**
+         * Apply changes read from the log after this snapshot's seq. Both the
+         * albums and the changes are in ID order, so this is one merge pass.
+         */
+        Snapshot apply(List<AlbumChange> changes, long newSeq) {
+            AlbumChange[] sorted = changes.toArray(new AlbumChange[0]);
+            Arrays.sort(sorted, (a, b) -> Long.compare(a.getAlbumId(), b.getAlbumId()));
+            Album[] merged = new Album[albums.length + sorted.length];
+            int size = 0;
+            int i = 0;
+            int j = 0;
+            while (i < albums.length || j < sorted.length) {
+                long oldId = i < albums.length ? albums[i].getId() : Long.MAX_VALUE;
+                long changedId = j < sorted.length ? sorted[j].getAlbumId() : Long.MAX_VALUE;
+                if (oldId < changedId) {
+                    merged[size++] = albums[i++];
+                    continue;
+                }
+                if (oldId == changedId) {
+                    i++;
+                }
+                // Deleted albums are dropped; anything else is the current state
+                Album album = sorted[j++].getAlbum();
+                if (album != null) {
+                    merged[size++] = album;
+                }
+            }
+            return new Snapshot(size == merged.length ? merged : Arrays.copyOf(merged, size), newSeq);
+        }
+    }
+
+    private static final class AlbumList extends AbstractList<Album> implements RandomAccess {
+        private final Album[] albums;
+
+        AlbumList(Album[] albums) {
+            this.albums = albums;
+        }
+
+        @Override
+        public Album get(int index) {
+            return albums[index];
+        }
+
+        @Override
+        public int size() {
+            return albums.length;
+        }
+    }
+
+    private final AlbumManager albumManager;
+    private final ExecutorService executor;
+    private final AlbumManager.AlbumChangeListener changeListener = (changes, ids) -> scheduleSync();
+    // Set while a sync is queued but not yet started, so a burst of
+    // notifications queues one sync
+    private final AtomicBoolean syncQueued = new AtomicBoolean();
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    // Guarded by this
+    private boolean loaded;
+
+    public AlbumReplica(AlbumManager albumManager) {
+        this.albumManager = albumManager;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        this.executor = executor;
+    }
+
+    /**
+     * Start following the provider and load the albums in the background.
+     * Until the load finishes snapshot() returns an empty snapshot.
+     */
+    public void start() {
+        albumManager.registerChangeListener(changeListener, null);
+        scheduleSync();
+    }
+
+    /**
+     * Stop following the provider. The last snapshot stays readable.
+     */
+    public void close() {
+        albumManager.unregisterChangeListener(changeListener);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Get the current albums. Never blocks and never crosses into the provider.
+     */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Bring the replica up to date with the provider on the calling thread,
+     * e.g. to read back a write just made. Must not be called on the main thread.
+     * @return The new current snapshot
+     */
+    public synchronized Snapshot sync() {
+        try {
+            if (!loaded) {
+                load();
+                loaded = true;
+            }
+            catchUp();
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error syncing albums", e);
+        }
+        return snapshot;
+    }
+
+    private void scheduleSync() {
+        if (!syncQueued.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                syncQueued.set(false);
+                sync();
+            });
+        } catch (RuntimeException e) {
+            // Closed
+            syncQueued.set(false);
+        }
+    }
+
+    // Read every album, starting from the log position taken before the read
+    // so that catchUp() applies anything written while it ran
+    private void load() {
+        long seq = albumManager.getLatestChangeSeq();
+        if (seq < 0) {
+            throw new IllegalStateException("Provider unavailable");
+        }
+        Album[] albums = albumManager.getAllAlbums().toArray(new Album[0]);
+        // Already in ID order, which TimSort confirms in one pass
+        Arrays.sort(albums, BY_ID);
+        snapshot = new Snapshot(albums, seq);
+    }
+
+    private void catchUp() {
+        AlbumManager.ChangeSet changeSet = albumManager.getChangesSince(snapshot.getSeq());
+        if (changeSet != null && !changeSet.isComplete()) {
+            Log.d(TAG, "Change log no longer reaches seq " + snapshot.getSeq() + ", reloading");
+            load();
+            changeSet = albumManager.getChangesSince(snapshot.getSeq());
+        }
+        if (changeSet == null || !changeSet.isComplete() || changeSet.getChanges().isEmpty()) {
+            return;
+        }
+        snapshot = snapshot.apply(changeSet.getChanges(), changeSet.getLatestSeq());
+    }
+
+    // Binary search by ID, returning what Arrays.binarySearch would
+    static int indexOf(Album[] albums, long id) {
+        int low = 0;
+        int high = albums.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = albums[mid].getId();
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+}
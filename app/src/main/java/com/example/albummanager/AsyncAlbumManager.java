@@ -0,0 +1,456 @@
+package com.example.albummanager;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.albummanager.model.Album;
+import com.example.albummanager.model.AlbumTable;
+import com.example.albummanager.model.Artist;
+import com.example.albummanager.model.ArtistSummary;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs AlbumManager operations on a background thread and delivers the results
+ * on the main thread. Operations run one at a time in submission order, so a
+ * load submitted after a write always sees that write.
+ */
+public class AsyncAlbumManager {
+    private static final String TAG = "AsyncAlbumManager";
+    private static final int MAX_QUEUED_TASKS = 128;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    // keys of operations where only the most recently submitted call matters
+    private static final String KEY_LOAD = "load";
+    private static final String KEY_SEARCH = "search";
+
+    public interface Callback<T> {
+        /**
+         * Called on the main thread with the result of the operation
+         * @param result The value returned by the AlbumManager method
+         */
+        void onResult(T result);
+
+        /**
+         * Called on the main thread if the operation threw
+         * @param error The exception thrown by the AlbumManager method
+         */
+        default void onError(Throwable error) {
+            Log.e(TAG, "Album operation failed", error);
+        }
+    }
+
+    private final AlbumManager albumManager;
+    private final ThreadPoolExecutor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Task<?>> latestTasks = new HashMap<>();
+    // Set by shutdown(); results and progress posted before it are dropped
+    private volatile boolean shutDown;
+
+    public AsyncAlbumManager(AlbumManager albumManager) {
+        this.albumManager = albumManager;
+        this.executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(MAX_QUEUED_TASKS), runnable -> {
+                    Thread thread = new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public AlbumManager getAlbumManager() {
+        return albumManager;
+    }
+
+    public Future<?> addAlbum(String artist, String name, Callback<Long> callback) {
+        return submit(null, () -> albumManager.addAlbum(artist, name), callback);
+    }
+
+    public Future<?> addAlbums(List<Album> albums, Callback<Integer> callback) {
+        return submit(null, () -> albumManager.addAlbums(albums), callback);
+    }
+
+    public Future<?> applyOperations(ArrayList<ContentProviderOperation> operations,
+                                     Callback<ContentProviderResult[]> callback) {
+        return submit(null, () -> albumManager.applyOperations(operations), callback);
+    }
+
+    /**
+     * Load all albums, cancelling any earlier load that has not delivered yet
+     */
+    public Future<?> getAllAlbums(Callback<List<Album>> callback) {
+        return submit(KEY_LOAD, albumManager::getAllAlbums, callback);
+    }
+
+    /**
+     * Query albums into a cursor, cancelling any earlier load that has not
+     * delivered yet. The first window of rows is filled on the background
+     * thread. The callback owns the cursor and must close it; a cursor that is
+     * superseded before delivery is closed here.
+     */
+    public Future<?> queryAlbums(AlbumManager.QueryOptions options, Callback<Cursor> callback) {
+        return submit(KEY_LOAD, () -> {
+            Cursor cursor = albumManager.queryAlbums(options);
+            if (cursor != null) {
+                cursor.getCount();
+            }
+            return cursor;
+        }, callback, cursor -> {
+            if (cursor != null) {
+                cursor.close();
+            }
+        });
+    }
+
+    /**
+     * Query albums in the given order and filter into an AlbumPager, with the
+     * pages around position already read, cancelling any earlier load that
+     * has not delivered yet. The callback owns the pager and must close it; a
+     * pager that is superseded before delivery is closed here.
+     */
+    public Future<?> pageAlbums(AlbumManager.QueryOptions options, int position,
+                                Callback<AlbumPager> callback) {
+        return submit(KEY_LOAD, () -> {
+            Cursor cursor = albumManager.queryAlbums(options);
+            return cursor != null ? new AlbumPager(cursor, position) : null;
+        }, callback, pager -> {
+            if (pager != null) {
+                pager.close();
+            }
+        });
+    }
+
+    /**
+     * Read the first screen of albums saved by the last writeFirstPage().
+     * Submitted before a load, it is delivered before that load's result.
+     */
+    public Future<?> readFirstPage(FirstPageCache cache, Callback<List<Album>> callback) {
+        return submit(null, cache::read, callback);
+    }
+
+    /**
+     * Save the first screen of albums for the next cold start. Best effort: a
+     * write still queued at shutdown() is dropped and the old page kept.
+     */
+    public Future<?> writeFirstPage(FirstPageCache cache, List<Album> albums) {
+        return submit(null, () -> {
+            cache.write(albums);
+            return null;
+        }, null);
+    }
+
+    /**
+     * Load albums in the given order and filter, cancelling any earlier load
+     * that has not delivered yet
+     */
+    public Future<?> getAlbums(AlbumManager.QueryOptions options, Callback<List<Album>> callback) {
+        return submit(KEY_LOAD, () -> albumManager.getAlbums(options), callback);
+    }
+
+    /**
+     * Load albums in the given order and filter as an AlbumTable, cancelling
+     * any earlier load that has not delivered yet
+     */
+    public Future<?> getAlbumTable(AlbumManager.QueryOptions options, Callback<AlbumTable> callback) {
+        return submit(KEY_LOAD, () -> albumManager.getAlbumTable(options), callback);
+    }
+
+    public Future<?> getAlbumsPage(long afterId, int limit, Callback<List<Album>> callback) {
+        return submit(null, () -> albumManager.getAlbumsPage(afterId, limit), callback);
+    }
+
+    public Future<?> getAlbumById(long id, Callback<Album> callback) {
+        return submit(null, () -> albumManager.getAlbumById(id), callback);
+    }
+
+    public Future<?> updateAlbum(Album album, Callback<Boolean> callback) {
+        return submit(null, () -> albumManager.updateAlbum(album), callback);
+    }
+
+    public Future<?> deleteAlbum(long id, Callback<Boolean> callback) {
+        return submit(null, () -> albumManager.deleteAlbum(id), callback);
+    }
+
+    /**
+     * Delete every album of an artist, delivering progress on the main thread
+     */
+    public Future<?> deleteByArtist(long artistId, AlbumManager.BulkProgressListener progress,
+                                    Callback<Integer> callback) {
+        AlbumManager.BulkProgressListener onMain = onMainThread(progress);
+        return submit(null, () -> albumManager.deleteByArtist(artistId, onMain), callback);
+    }
+
+    /**
+     * Move every album of an artist to a new artist name, delivering progress
+     * on the main thread
+     */
+    public Future<?> renameArtist(long artistId, String newName,
+                                  AlbumManager.BulkProgressListener progress,
+                                  Callback<Integer> callback) {
+        AlbumManager.BulkProgressListener onMain = onMainThread(progress);
+        return submit(null, () -> albumManager.renameArtist(artistId, newName, onMain), callback);
+    }
+
+    private AlbumManager.BulkProgressListener onMainThread(AlbumManager.BulkProgressListener listener) {
+        if (listener == null) {
+            return null;
+        }
+        return (done, total) -> mainHandler.post(() -> {
+            if (!shutDown) {
+                listener.onProgress(done, total);
+            }
+        });
+    }
+
+    /**
+     * Search by artist, cancelling any earlier search that has not delivered yet
+     */
+    public Future<?> searchAlbumsByArtist(String artist, Callback<List<Album>> callback) {
+        return submit(KEY_SEARCH, () -> albumManager.searchAlbumsByArtist(artist), callback);
+    }
+
+    /**
+     * Search by name, cancelling any earlier search that has not delivered yet
+     */
+    public Future<?> searchAlbumsByName(String name, Callback<List<Album>> callback) {
+        return submit(KEY_SEARCH, () -> albumManager.searchAlbumsByName(name), callback);
+    }
+
+    /**
+     * Full-text search, cancelling any earlier search that has not delivered yet
+     */
+    public Future<?> search(String query, int limit, Callback<List<Album>> callback) {
+        return submit(KEY_SEARCH, () -> albumManager.search(query, limit), callback);
+    }
+
+    /**
+     * Find albums matching a compound filter, cancelling any earlier search
+     * that has not delivered yet
+     */
+    public Future<?> findAlbums(AlbumManager.AlbumFilter filter, Callback<List<Album>> callback) {
+        return submit(KEY_SEARCH, () -> albumManager.findAlbums(filter), callback);
+    }
+
+    /**
+     * Find albums matching a compound filter in a replica snapshot, cancelling
+     * any earlier search that has not delivered yet
+     */
+    public Future<?> findAlbums(AlbumManager.AlbumFilter filter, AlbumReplica.Snapshot snapshot,
+                                Callback<List<Album>> callback) {
+        return submit(KEY_SEARCH, () -> albumManager.findAlbums(filter, snapshot), callback);
+    }
+
+    /**
+     * Stream every album to an output stream. The stream is not closed; the
+     * callback receives the number of bytes written.
+     */
+    public Future<?> exportAlbums(OutputStream out, AlbumArchive.Format format, Callback<Long> callback) {
+        return submit(null, () -> albumManager.exportAlbums(out, format), callback);
+    }
+
+    /**
+     * Add every album in an archive. The stream is not closed; the callback
+     * receives the number of albums inserted.
+     */
+    public Future<?> importAlbums(InputStream in, AlbumArchive.Format format, Callback<Integer> callback) {
+        return submit(null, () -> albumManager.importAlbums(in, format), callback);
+    }
+
+    public Future<?> getChangesSince(long seq, Callback<AlbumManager.ChangeSet> callback) {
+        return submit(null, () -> albumManager.getChangesSince(seq), callback);
+    }
+
+    public Future<?> countAlbumsOf(long artistId, Callback<Integer> callback) {
+        return submit(null, () -> albumManager.countAlbumsOf(artistId), callback);
+    }
+
+    public Future<?> getArtists(Callback<List<Artist>> callback) {
+        return submit(null, albumManager::getArtists, callback);
+    }
+
+    public Future<?> getArtistSummaries(Callback<List<ArtistSummary>> callback) {
+        return submit(null, albumManager::getArtistSummaries, callback);
+    }
+
+    public Future<?> getAlbumsByArtist(long artistId, Callback<List<Album>> callback) {
+        return submit(null, () -> albumManager.getAlbumsByArtist(artistId), callback);
+    }
+
+    /**
+     * Cancel all pending work and drop any results not yet delivered, releasing
+     * the ones that need it. The instance cannot be used afterwards.
+     */
+    public void shutdown() {
+        Log.d(TAG, "Shutting down, dropping " + executor.getQueue().size() + " queued tasks");
+        shutDown = true;
+        List<Task<?>> pending;
+        synchronized (latestTasks) {
+            pending = new ArrayList<>(latestTasks.values());
+            latestTasks.clear();
+        }
+        // Outside the lock: a cancelled task retires itself from latestTasks
+        for (Task<?> task : pending) {
+            task.supersede();
+        }
+        // Deliveries already posted stay queued: each sees shutDown and
+        // discards its result instead of leaking it
+        executor.shutdownNow();
+    }
+
+    private <T> Future<?> submit(String key, Callable<T> work, Callback<T> callback) {
+        return submit(key, work, callback, null);
+    }
+
+    /**
+     * @param discard Releases a result that will not be delivered, or null if
+     * results need no cleanup
+     */
+    private <T> Future<?> submit(String key, Callable<T> work, Callback<T> callback,
+                                 Consumer<T> discard) {
+        Task<T> task = new Task<>(key, work, callback, discard);
+        if (key != null) {
+            synchronized (latestTasks) {
+                Task<?> previous = latestTasks.put(key, task);
+                if (previous != null) {
+                    Log.d(TAG, "Cancelling stale " + key + " task");
+                    previous.supersede();
+                }
+            }
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Rejected album operation, queue is full");
+            task.supersede();
+            if (callback != null) {
+                mainHandler.post(() -> {
+                    if (!shutDown) {
+                        callback.onError(e);
+                    }
+                });
+            }
+        }
+        return task;
+    }
+
+    private class Task<T> extends FutureTask<T> {
+        private final String key;
+        private final Callback<T> callback;
+        private final Consumer<T> discard;
+        private volatile boolean stale;
+
+        Task(String key, Callable<T> work, Callback<T> callback, Consumer<T> discard) {
+            super(work);
+            this.key = key;
+            this.callback = callback;
+            this.discard = discard;
+        }
+
+        void supersede() {
+            stale = true;
+            cancel(false);
+        }
+
+        // Superseded by a newer task with the same key, or the manager shut down
+        boolean isStale() {
+            return stale || shutDown;
+        }
+
+        @Override
+        protected void set(T result) {
+            super.set(result);
+            // Cancelled while running: FutureTask drops the result, so release it here
+            if (isCancelled()) {
+                discard(result);
+            }
+        }
+
+        @Override
+        protected void done() {
+            if (isCancelled()) {
+                retire();
+                return;
+            }
+            if (isStale() || callback == null) {
+                retire();
+                discardResult();
+                return;
+            }
+            try {
+                T result = get();
+                mainHandler.post(() -> {
+                    // Retired only once delivered, so until then a newer
+                    // submit or shutdown() can still mark it stale
+                    retire();
+                    if (!isStale()) {
+                        callback.onResult(result);
+                    } else {
+                        discard(result);
+                    }
+                });
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                mainHandler.post(() -> {
+                    retire();
+                    if (!isStale()) {
+                        callback.onError(cause);
+                    }
+                });
+            } catch (InterruptedException e) {
+                retire();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Drop the entry for this task's key, unless a newer task has replaced it,
+        // so a finished task and its result are not kept alive until the next submit
+        private void retire() {
+            if (key == null) {
+                return;
+            }
+            synchronized (latestTasks) {
+                if (latestTasks.get(key) == this) {
+                    latestTasks.remove(key);
+                }
+            }
+        }
+
+        private void discardResult() {
+            try {
+                discard(get());
+            } catch (ExecutionException e) {
+                // nothing was produced
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void discard(T result) {
+            if (discard != null) {
+                discard.accept(result);
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.albummanager;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.albummanager.model.Album;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The first screen of the default album list, kept in a small file so a cold
+ * start can show it before the provider has opened its database. It is a
+ * preview only: it may be out of date, and the list replaces it with the
+ * provider's rows as soon as they load. Stored in the AlbumArchive binary
+ * format; a missing or unreadable file reads as empty.
+ *
+ * Both methods do file I/O, so call them off the main thread.
+ */
+public final class FirstPageCache {
+    private static final String TAG = "FirstPageCache";
+    private static final String FILE_NAME = "first_page.albm";
+
+    // More than a tall phone shows, so the first frame has no blank rows
+    public static final int ROWS = 30;
+
+    private final File file;
+
+    public FirstPageCache(Context context) {
+        this.file = new File(context.getCacheDir(), FILE_NAME);
+    }
+
+    /**
+     * @return The albums last written, or an empty list if there are none
+     */
+    public List<Album> read() {
+        if (!file.exists()) {
+            return Collections.emptyList();
+        }
+        List<Album> albums = new ArrayList<>(ROWS);
+        try (FileInputStream in = new FileInputStream(file);
+             AlbumArchive.Reader reader = AlbumArchive.Format.BINARY.newReader(in.getChannel())) {
+            Album album;
+            while (albums.size() < ROWS && (album = reader.read()) != null) {
+                albums.add(album);
+            }
+            return albums;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Discarding unreadable first page", e);
+            file.delete();
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Replace the stored albums. Written to a temporary file and renamed, so
+     * a reader never sees a partial page.
+     * @param albums The first rows of the default list; only the first ROWS are kept
+     */
+    public void write(List<Album> albums) {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp);
+             AlbumArchive.Writer writer = AlbumArchive.Format.BINARY.newWriter(out.getChannel())) {
+            for (int i = 0; i < albums.size() && i < ROWS; i++) {
+                Album album = albums.get(i);
+                writer.write(album.getId(), album.getArtist(), album.getName());
+            }
+            writer.finish();
+        } catch (IOException e) {
+            Log.w(TAG, "Error writing first page", e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.w(TAG, "Error replacing first page");
+            temp.delete();
+        }
+    }
+}
@@ -1,18 +1,24 @@
 package com.example.albummanager;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
+import androidx.recyclerview.widget.SimpleItemAnimator;
 
-import android.database.ContentObserver;
-import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.text.Editable;
+import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -21,6 +27,7 @@ import com.google.android.material.button.MaterialButton;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.android.material.textfield.TextInputEditText;
 
+import com.example.albummanager.AlbumManager.QueryOptions;
 import com.example.albummanager.model.Album;
 
 import java.util.ArrayList;
@@ -28,14 +35,37 @@ import java.util.List;
 
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = "MainActivity";
+    // Bind rows from a cursor read a page at a time in the background, so
+    // memory stays flat with any library size; false uses the diffed list,
+    // which animates changes but holds every album in memory
+    private static final boolean CURSOR_BACKED_LIST = true;
+    // Rows kept for reuse; enough for a fling to recycle instead of inflate
+    private static final int RECYCLED_ROWS = 24;
+    // Wait for typing to pause before filtering
+    private static final long FILTER_DELAY_MS = 200;
     private AlbumManager albumManager;
+    private AsyncAlbumManager asyncAlbumManager;
     private RecyclerView recyclerView;
     private AlbumAdapter adapter;
-    private List<Album> albums = new ArrayList<>();
-    private ContentObserver contentObserver;
-    private boolean isSelfChange = false;
-    private static final Uri CONTENT_URI = Uri.parse("content://com.example.albummanager.provider/albums");
+    private AlbumPagerAdapter pagerAdapter;
+    private FirstPageCache firstPageCache;
+    private QueryOptions queryOptions = QueryOptions.DEFAULT;
+    private final Runnable applyFilter = this::loadAlbums;
+    // Changes from other clients within this window cause one full reload
+    private static final long RELOAD_WINDOW_MS = 300;
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AlbumChangeCoalescer changeCoalescer = new AlbumChangeCoalescer(
+            mainHandler, RELOAD_WINDOW_MS, new AlbumManager.AlbumChangeListener() {
+                @Override
+                public void onAlbumsChanged(int changes, long[] ids) {
+                    onAlbumsChanged(changes, ids, false);
+                }
+
+                @Override
+                public void onAlbumsChanged(int changes, long[] ids, boolean selfChange) {
+                    MainActivity.this.onAlbumsChanged(changes, ids, selfChange);
+                }
+            });
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -49,12 +79,58 @@ public class MainActivity extends AppCompatActivity {
 
         // Initialize AlbumManager
         albumManager = new AlbumManager(getContentResolver());
+        asyncAlbumManager = new AsyncAlbumManager(albumManager);
 
         // Set up RecyclerView
         recyclerView = findViewById(R.id.albumRecyclerView);
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
-        adapter = new AlbumAdapter(albums, this::showEditDialog);
-        recyclerView.setAdapter(adapter);
+        // The list fills the space below the inputs, whatever it holds
+        recyclerView.setHasFixedSize(true);
+        recyclerView.getRecycledViewPool().setMaxRecycledViews(0, RECYCLED_ROWS);
+        // Rows only change when their page loads or the list reloads; skip the
+        // cross-fade, which keeps two holders per changed row alive
+        ((SimpleItemAnimator) recyclerView.getItemAnimator()).setSupportsChangeAnimations(false);
+        if (CURSOR_BACKED_LIST) {
+            pagerAdapter = new AlbumPagerAdapter(this::showEditDialog);
+            recyclerView.setAdapter(pagerAdapter);
+        } else {
+            adapter = new AlbumAdapter(this::showEditDialog);
+            recyclerView.setAdapter(adapter);
+        }
+
+        // Set up filtering and sorting
+        TextInputEditText searchInput = findViewById(R.id.searchInput);
+        searchInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                queryOptions = new QueryOptions(queryOptions.getSort(), s.toString());
+                mainHandler.removeCallbacks(applyFilter);
+                mainHandler.postDelayed(applyFilter, FILTER_DELAY_MS);
+            }
+        });
+        Spinner sortSpinner = findViewById(R.id.sortSpinner);
+        sortSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                QueryOptions.Sort sort = QueryOptions.Sort.values()[position];
+                if (sort != queryOptions.getSort()) {
+                    queryOptions = new QueryOptions(sort, queryOptions.getFilter());
+                    loadAlbums();
+                }
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
 
         // Set up FAB
         FloatingActionButton fab = findViewById(R.id.fab);
@@ -70,76 +146,141 @@ public class MainActivity extends AppCompatActivity {
             String name = nameInput.getText().toString();
 
             if (!artist.isEmpty() && !name.isEmpty()) {
-                isSelfChange = true;
                 Log.d(TAG, "Adding album from UI: " + artist + " - " + name);
-                albumManager.addAlbum(artist, name);
                 artistInput.setText("");
                 nameInput.setText("");
-                loadAlbums();
-                isSelfChange = false;
+                asyncAlbumManager.addAlbum(artist, name, id -> {
+                    loadAlbums();
+                });
             } else {
                 Toast.makeText(this, "Please fill in all fields", Toast.LENGTH_SHORT).show();
             }
         });
 
-        // Setup ContentObserver
-        contentObserver = new ContentObserver(new Handler(Looper.getMainLooper())) {
-            @Override
-            public void onChange(boolean selfChange, Uri uri) {
-                Log.d(TAG, "ContentObserver onChange called, selfChange: " + selfChange + ", uri: " + uri);
-                if (!isSelfChange) {
-                    mainHandler.post(() -> {
-                        Log.d(TAG, "Data changed externally, reloading albums");
-                        Toast.makeText(MainActivity.this, "Data changed in AlbumClient", Toast.LENGTH_SHORT).show();
-                        loadAlbums();
-                    });
-                } else {
-                    Log.d(TAG, "Ignoring self-change");
-                }
-            }
-        };
-
-        // Load initial data
-        loadAlbums();
+        // Show the first screen from the last run while the provider opens
+        // its database; onResume loads the real rows
+        firstPageCache = new FirstPageCache(this);
+        asyncAlbumManager.readFirstPage(firstPageCache, this::showPreview);
     }
 
     @Override
     protected void onResume() {
         super.onResume();
-        Log.d(TAG, "onResume called, registering ContentObserver");
-        // Register ContentObserver
-        getContentResolver().registerContentObserver(
-            CONTENT_URI,
-            true,  // Notify for descendants
-            contentObserver
-        );
-        // Load initial data
+        Log.d(TAG, "onResume called, registering change listener");
+        albumManager.registerChangeListener(changeCoalescer, null);
+        // The only load at startup, and a refresh for changes made while paused
         loadAlbums();
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        Log.d(TAG, "onPause called, unregistering ContentObserver");
-        // Unregister ContentObserver
-        getContentResolver().unregisterContentObserver(contentObserver);
+        Log.d(TAG, "onPause called, unregistering change listener");
+        albumManager.unregisterChangeListener(changeCoalescer);
+        changeCoalescer.cancel();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // Save what the next cold start shows first, if this is the list it shows
+        if (queryOptions.getFilter() == null && queryOptions.getSort() == QueryOptions.Sort.ID) {
+            List<Album> firstRows = CURSOR_BACKED_LIST
+                    ? pagerAdapter.getFirstRows(FirstPageCache.ROWS)
+                    : new ArrayList<>(adapter.getCurrentList().subList(0,
+                            Math.min(FirstPageCache.ROWS, adapter.getCurrentList().size())));
+            if (!firstRows.isEmpty()) {
+                asyncAlbumManager.writeFirstPage(firstPageCache, firstRows);
+            }
+        }
+    }
+
+    // Rows from FirstPageCache, shown until the first load delivers
+    private void showPreview(List<Album> albums) {
+        if (albums.isEmpty()) {
+            return;
+        }
+        Log.d(TAG, "Showing " + albums.size() + " cached albums");
+        if (CURSOR_BACKED_LIST) {
+            pagerAdapter.showPreview(albums);
+        } else if (adapter.getCurrentList().isEmpty()) {
+            adapter.submitList(albums);
+        }
+    }
+
+    /**
+     * One merged batch of changes per RELOAD_WINDOW_MS, refreshed with a full
+     * reload rather than by patching rows from ids. An update can move a row
+     * under the current sort or in or out of the filter, so the changed IDs
+     * alone do not say which positions moved. The reload stays cheap for the
+     * rows on screen: the pager loads the visible page first and the list
+     * adapter diffs the new list against the old one.
+     * @param ids The distinct changed IDs, or null if too many to list; only logged
+     */
+    private void onAlbumsChanged(int changes, long[] ids, boolean selfChange) {
+        if (selfChange) {
+            // This activity's own writes reload from their callbacks
+            Log.d(TAG, "Ignoring self-change");
+            return;
+        }
+        Log.d(TAG, "Data changed externally (changes " + changes + ", "
+                + (ids != null ? ids.length + " albums" : "many albums") + "), reloading albums");
+        Toast.makeText(this, "Data changed in AlbumClient", Toast.LENGTH_SHORT).show();
+        loadAlbums();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        Log.d(TAG, "onDestroy called, shutting down album executor");
+        mainHandler.removeCallbacks(applyFilter);
+        asyncAlbumManager.shutdown();
+        if (pagerAdapter != null) {
+            pagerAdapter.swapPager(null);
+        }
     }
 
     private void loadAlbums() {
         Log.d(TAG, "Loading albums");
-        mainHandler.post(() -> {
-            try {
-                albums.clear();
-                List<Album> newAlbums = albumManager.getAllAlbums();
+        mainHandler.removeCallbacks(applyFilter);
+        // A newer load supersedes this one, so only the latest result is shown
+        if (CURSOR_BACKED_LIST) {
+            // Load the rows on screen first so a reload does not blank them
+            int position = Math.max(((LinearLayoutManager) recyclerView.getLayoutManager())
+                    .findFirstVisibleItemPosition(), 0);
+            asyncAlbumManager.pageAlbums(queryOptions, position, new AsyncAlbumManager.Callback<AlbumPager>() {
+                @Override
+                public void onResult(AlbumPager pager) {
+                    if (pager != null) {
+                        Log.d(TAG, "Loaded " + pager.getCount() + " albums");
+                        pagerAdapter.swapPager(pager);
+                    } else {
+                        Log.e(TAG, "Failed to load albums");
+                    }
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    Log.e(TAG, "Error loading albums", error);
+                }
+            });
+            return;
+        }
+        asyncAlbumManager.getAlbums(queryOptions, new AsyncAlbumManager.Callback<List<Album>>() {
+            @Override
+            public void onResult(List<Album> newAlbums) {
                 if (newAlbums != null) {
-                    albums.addAll(newAlbums);
-                    Log.d(TAG, "Loaded " + albums.size() + " albums");
-                    adapter.notifyDataSetChanged();
+                    Log.d(TAG, "Loaded " + newAlbums.size() + " albums");
+                    // Diffed off the main thread; only changed rows are rebound
+                    adapter.submitList(newAlbums);
                 } else {
                     Log.e(TAG, "Failed to load albums");
                 }
-            } catch (Exception e) {
-                Log.e(TAG, "Error loading albums", e);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                Log.e(TAG, "Error loading albums", error);
             }
         });
     }
@@ -156,10 +297,9 @@ public class MainActivity extends AppCompatActivity {
                 String artist = artistInput.getText().toString();
                 String name = nameInput.getText().toString();
                 if (!artist.isEmpty() && !name.isEmpty()) {
-                    isSelfChange = true;
-                    albumManager.addAlbum(artist, name);
-                    loadAlbums();
-                    isSelfChange = false;
+                    asyncAlbumManager.addAlbum(artist, name, id -> {
+                        loadAlbums();
+                    });
                 }
             })
             .setNegativeButton("Cancel", null)
@@ -181,68 +321,185 @@ public class MainActivity extends AppCompatActivity {
                 String artist = artistInput.getText().toString();
                 String name = nameInput.getText().toString();
                 if (!artist.isEmpty() && !name.isEmpty()) {
-                    album.setArtist(artist);
-                    album.setName(name);
-                    isSelfChange = true;
-                    if (albumManager.updateAlbum(album)) {
-                        loadAlbums();
-                    }
-                    isSelfChange = false;
+                    // Edit a copy so the adapter's current list still holds the
+                    // old contents and the diff sees the row as changed
+                    Album edited = new Album(album.getId(), artist, name);
+                    asyncAlbumManager.updateAlbum(edited, updated -> {
+                        if (updated) {
+                            loadAlbums();
+                        }
+                    });
                 }
             })
             .setNegativeButton("Delete", (dialog, which) -> {
-                isSelfChange = true;
-                if (albumManager.deleteAlbum(album.getId())) {
-                    loadAlbums();
-                }
-                isSelfChange = false;
+                asyncAlbumManager.deleteAlbum(album.getId(), deleted -> {
+                    if (deleted) {
+                        loadAlbums();
+                    }
+                });
             })
             .setNeutralButton("Cancel", null)
             .show();
     }
 
-    private class AlbumAdapter extends RecyclerView.Adapter<AlbumAdapter.AlbumViewHolder> {
-        private List<Album> albums;
-        private OnAlbumClickListener listener;
+    private static final DiffUtil.ItemCallback<Album> ALBUM_DIFF = new DiffUtil.ItemCallback<Album>() {
+        @Override
+        public boolean areItemsTheSame(Album oldItem, Album newItem) {
+            return oldItem.getId() == newItem.getId();
+        }
 
-        public interface OnAlbumClickListener {
-            void onAlbumClick(Album album);
+        @Override
+        public boolean areContentsTheSame(Album oldItem, Album newItem) {
+            return TextUtils.equals(oldItem.getArtist(), newItem.getArtist())
+                    && TextUtils.equals(oldItem.getName(), newItem.getName());
         }
+    };
+
+    interface OnAlbumClickListener {
+        void onAlbumClick(Album album);
+    }
+
+    private class AlbumAdapter extends ListAdapter<Album, AlbumViewHolder> {
+        private final OnAlbumClickListener listener;
 
-        public AlbumAdapter(List<Album> albums, OnAlbumClickListener listener) {
-            this.albums = albums;
+        public AlbumAdapter(OnAlbumClickListener listener) {
+            super(ALBUM_DIFF);
             this.listener = listener;
+            setHasStableIds(true);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return getItem(position).getId();
         }
 
         @Override
         public AlbumViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
             View view = LayoutInflater.from(parent.getContext())
                 .inflate(R.layout.item_album, parent, false);
-            return new AlbumViewHolder(view);
+            return new AlbumViewHolder(view, listener);
         }
 
         @Override
         public void onBindViewHolder(AlbumViewHolder holder, int position) {
-            Album album = albums.get(position);
-            holder.artistTextView.setText(album.getArtist());
-            holder.nameTextView.setText(album.getName());
-            holder.itemView.setOnClickListener(v -> listener.onAlbumClick(album));
+            holder.bind(getItem(position));
+        }
+    }
+
+    /**
+     * Binds rows from an AlbumPager, which reads them from the provider on a
+     * background thread ahead of the scroll position. Each reload swaps in a
+     * new pager and closes the old one. Until the first pager arrives it can
+     * show a preview list instead.
+     */
+    private class AlbumPagerAdapter extends RecyclerView.Adapter<AlbumViewHolder>
+            implements AlbumPager.Listener {
+        private final OnAlbumClickListener listener;
+        private AlbumPager pager;
+        private List<Album> preview;
+
+        AlbumPagerAdapter(OnAlbumClickListener listener) {
+            this.listener = listener;
+            setHasStableIds(true);
+        }
+
+        void swapPager(AlbumPager newPager) {
+            if (newPager == pager) {
+                return;
+            }
+            if (pager != null) {
+                pager.close();
+            }
+            pager = newPager;
+            preview = null;
+            if (newPager != null) {
+                newPager.setListener(this);
+            }
+            notifyDataSetChanged();
+        }
+
+        // Ignored once a pager has been swapped in
+        void showPreview(List<Album> albums) {
+            if (pager != null) {
+                return;
+            }
+            preview = albums;
+            notifyDataSetChanged();
+        }
+
+        // The loaded rows from the top of the list, up to count
+        List<Album> getFirstRows(int count) {
+            List<Album> rows = new ArrayList<>(count);
+            for (int i = 0; pager != null && i < Math.min(count, pager.getCount()); i++) {
+                Album album = pager.getAlbum(i);
+                if (album == null) {
+                    break;
+                }
+                rows.add(album);
+            }
+            return rows;
+        }
+
+        @Override
+        public void onRowsLoaded(int start, int count) {
+            notifyItemRangeChanged(start, count);
         }
 
         @Override
         public int getItemCount() {
-            return albums.size();
+            if (pager != null) {
+                return pager.getCount();
+            }
+            return preview != null ? preview.size() : 0;
         }
 
-        class AlbumViewHolder extends RecyclerView.ViewHolder {
-            TextView artistTextView;
-            TextView nameTextView;
+        @Override
+        public long getItemId(int position) {
+            // The pager knows the ID of a row still loading, so the ID never
+            // changes when the row arrives
+            return pager != null ? pager.getId(position) : preview.get(position).getId();
+        }
 
-            AlbumViewHolder(View itemView) {
-                super(itemView);
-                artistTextView = itemView.findViewById(R.id.artistTextView);
-                nameTextView = itemView.findViewById(R.id.nameTextView);
-            }
+        @Override
+        public AlbumViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_album, parent, false);
+            return new AlbumViewHolder(view, listener);
+        }
+
+        @Override
+        public void onBindViewHolder(AlbumViewHolder holder, int position) {
+            holder.bind(getAlbum(position));
+        }
+
+        private Album getAlbum(int position) {
+            return pager != null ? pager.getAlbum(position) : preview.get(position);
+        }
+    }
+
+    // One click listener per holder, reading the album it is bound to, so
+    // binding a row allocates nothing
+    static class AlbumViewHolder extends RecyclerView.ViewHolder {
+        TextView artistTextView;
+        TextView nameTextView;
+        Album album;
+
+        AlbumViewHolder(View itemView, OnAlbumClickListener listener) {
+            super(itemView);
+            artistTextView = itemView.findViewById(R.id.artistTextView);
+            nameTextView = itemView.findViewById(R.id.nameTextView);
+            itemView.setOnClickListener(v -> {
+                if (album != null) {
+                    listener.onAlbumClick(album);
+                }
+            });
+        }
+
+        // A null album is a row whose page is still loading
+        void bind(Album album) {
+            this.album = album;
+            artistTextView.setText(album != null ? album.getArtist() : "");
+            nameTextView.setText(album != null ? album.getName() : "");
         }
     }
 }
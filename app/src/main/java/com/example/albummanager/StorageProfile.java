@@ -0,0 +1,102 @@
+package com.example.albummanager;
+
+/**
+ * SQLite settings AlbumProvider opens its database with. The presets cover the
+ * common trade-offs between write throughput, durability and memory use; the
+ * provider uses the one named by the storage_profile resource.
+ */
+public class StorageProfile {
+    // values for PRAGMA synchronous
+    public static final String SYNCHRONOUS_OFF = "OFF";
+    public static final String SYNCHRONOUS_NORMAL = "NORMAL";
+    public static final String SYNCHRONOUS_FULL = "FULL";
+
+    /**
+     * Write-ahead logging so readers never wait for a writer, with NORMAL sync:
+     * a crash can lose the last commits but never corrupts the database
+     */
+    public static final StorageProfile DEFAULT =
+            new StorageProfile("default", true, 0, 2048, SYNCHRONOUS_NORMAL);
+
+    // Write-ahead logging with every commit synced to disk
+    public static final StorageProfile DURABLE =
+            new StorageProfile("durable", true, 0, 2048, SYNCHRONOUS_FULL);
+
+    // The platform defaults: rollback journal, readers blocked while a write commits
+    public static final StorageProfile LEGACY =
+            new StorageProfile("legacy", false, 0, 0, SYNCHRONOUS_FULL);
+
+    private static final StorageProfile[] PRESETS = {DEFAULT, DURABLE, LEGACY};
+
+    private final String name;
+    private final boolean writeAheadLogging;
+    private final int pageSize;
+    private final int cacheSizeKb;
+    private final String synchronous;
+
+    /**
+     * @param name A label for logs and benchmarks
+     * @param writeAheadLogging Whether to open the database in WAL mode
+     * @param pageSize Page size in bytes for new databases, or 0 for the SQLite
+     * default. SQLite cannot change the page size of a WAL database, so it
+     * must be 0 if writeAheadLogging is set.
+     * @param cacheSizeKb Page cache size of the primary connection in KiB, or 0 for the SQLite default
+     * @param synchronous One of the SYNCHRONOUS_* values
+     */
+    public StorageProfile(String name, boolean writeAheadLogging, int pageSize,
+                          int cacheSizeKb, String synchronous) {
+        if (writeAheadLogging && pageSize > 0) {
+            throw new IllegalArgumentException("Cannot set the page size of a WAL database: " + name);
+        }
+        this.name = name;
+        this.writeAheadLogging = writeAheadLogging;
+        this.pageSize = pageSize;
+        this.cacheSizeKb = cacheSizeKb;
+        this.synchronous = synchronous;
+    }
+
+    /**
+     * Get a preset by name
+     * @param name The name of DEFAULT, DURABLE or LEGACY
+     * @throws IllegalArgumentException If no preset has that name
+     */
+    public static StorageProfile forName(String name) {
+        for (StorageProfile preset : PRESETS) {
+            if (preset.name.equals(name)) {
+                return preset;
+            }
+        }
+        throw new IllegalArgumentException("Unknown storage profile: " + name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isWriteAheadLogging() {
+        return writeAheadLogging;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getCacheSizeKb() {
+        return cacheSizeKb;
+    }
+
+    public String getSynchronous() {
+        return synchronous;
+    }
+
+    @Override
+    public String toString() {
+        return "StorageProfile{" +
+                "name='" + name + '\'' +
+                ", writeAheadLogging=" + writeAheadLogging +
+                ", pageSize=" + pageSize +
+                ", cacheSizeKb=" + cacheSizeKb +
+                ", synchronous='" + synchronous + '\'' +
+                '}';
+    }
+}
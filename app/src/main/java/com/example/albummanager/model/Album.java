@@ -2,6 +2,7 @@ package com.example.albummanager.model;
 
 public class Album {
     private long id;
+    private long artistId;
     private String artist;
     private String name;
 
@@ -27,6 +28,11 @@ public class Album {
         return id;
     }
 
+    // ID of the artist's row in the provider, or 0 if not read from it
+    public long getArtistId() {
+        return artistId;
+    }
+
     public String getArtist() {
         return artist;
     }
@@ -40,6 +46,10 @@ public class Album {
         this.id = id;
     }
 
+    public void setArtistId(long artistId) {
+        this.artistId = artistId;
+    }
+
     public void setArtist(String artist) {
         this.artist = artist;
     }
@@ -62,11 +72,7 @@ public class Album {
             return null;
         }
 
-        Album album = new Album();
-        album.setId(cursor.getLong(cursor.getColumnIndex("id")));
-        album.setArtist(cursor.getString(cursor.getColumnIndex("artist")));
-        album.setName(cursor.getString(cursor.getColumnIndex("name")));
-        return album;
+        return new AlbumCursorMapper(cursor).map();
     }
 
     @Override
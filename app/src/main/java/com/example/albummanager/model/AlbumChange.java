@@ -0,0 +1,70 @@
+package com.example.albummanager.model;
+
+/**
+ * One album's entry in the provider's change log: every kind of change made
+ * to it after the requested sequence number, and its state now
+ */
+public class AlbumChange {
+    private final long seq;
+    private final long albumId;
+    private final int changes;
+    private final Album album;
+
+    public AlbumChange(long seq, long albumId, int changes, Album album) {
+        this.seq = seq;
+        this.albumId = albumId;
+        this.changes = changes;
+        this.album = album;
+    }
+
+    // Sequence number of the latest change to the album
+    public long getSeq() {
+        return seq;
+    }
+
+    public long getAlbumId() {
+        return albumId;
+    }
+
+    // Bitmask of AlbumManager.CHANGE_INSERT, CHANGE_UPDATE and CHANGE_DELETE
+    public int getChanges() {
+        return changes;
+    }
+
+    // The album as it is now, or null if it no longer exists
+    public Album getAlbum() {
+        return album;
+    }
+
+    public boolean isDeleted() {
+        return album == null;
+    }
+
+    // Create AlbumChange from a row of the changes URI
+    public static AlbumChange fromCursor(android.database.Cursor cursor) {
+        if (cursor == null) {
+            return null;
+        }
+        long albumId = cursor.getLong(cursor.getColumnIndexOrThrow("album_id"));
+        int nameColumn = cursor.getColumnIndexOrThrow("name");
+        Album album = null;
+        if (!cursor.isNull(nameColumn)) {
+            album = new Album(albumId,
+                    ArtistNames.intern(cursor.getString(cursor.getColumnIndexOrThrow("artist"))),
+                    cursor.getString(nameColumn));
+            album.setArtistId(cursor.getLong(cursor.getColumnIndexOrThrow("artist_id")));
+        }
+        return new AlbumChange(cursor.getLong(cursor.getColumnIndexOrThrow("seq")), albumId,
+                cursor.getInt(cursor.getColumnIndexOrThrow("changes")), album);
+    }
+
+    @Override
+    public String toString() {
+        return "AlbumChange{" +
+                "seq=" + seq +
+                ", albumId=" + albumId +
+                ", changes=" + changes +
+                ", album=" + album +
+                '}';
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.albummanager.model;
+
+import android.database.Cursor;
+
+/**
+ * Maps cursor rows to albums, resolving the column indices once per cursor
+ * instead of once per row. Artist names are interned through ArtistNames.
+ */
+public class AlbumCursorMapper {
+    // Columns to request so the provider does not fall back to SELECT *
+    public static final String[] PROJECTION = {"id", "artist_id", "artist", "name"};
+
+    private final Cursor cursor;
+    private final int idIndex;
+    private final int artistIdIndex;
+    private final int artistIndex;
+    private final int nameIndex;
+
+    public AlbumCursorMapper(Cursor cursor) {
+        this.cursor = cursor;
+        this.idIndex = cursor.getColumnIndexOrThrow("id");
+        // optional, cursors from before artists were normalized do not have it
+        this.artistIdIndex = cursor.getColumnIndex("artist_id");
+        this.artistIndex = cursor.getColumnIndexOrThrow("artist");
+        this.nameIndex = cursor.getColumnIndexOrThrow("name");
+    }
+
+    // Read single columns of the current row, for binding views without an Album
+    public long getId() {
+        return cursor.getLong(idIndex);
+    }
+
+    public String getArtist() {
+        return cursor.getString(artistIndex);
+    }
+
+    public String getName() {
+        return cursor.getString(nameIndex);
+    }
+
+    // Create a new Album from the current row
+    public Album map() {
+        return fill(new Album());
+    }
+
+    // Overwrite an existing Album with the current row, for scans that recycle one instance
+    public Album fill(Album album) {
+        album.setId(cursor.getLong(idIndex));
+        album.setArtistId(artistIdIndex >= 0 ? cursor.getLong(artistIdIndex) : 0);
+        album.setArtist(ArtistNames.intern(cursor.getString(artistIndex)));
+        album.setName(cursor.getString(nameIndex));
+        return album;
+    }
+}
@@ -0,0 +1,382 @@
+package com.example.albummanager.model;
+
+import android.database.Cursor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Read-only albums held column by column instead of one Album per row, for
+ * operations over a large library. IDs are a long[], artists are dictionary
+ * encoded as an int[] of codes into one String per distinct artist, and names
+ * are UTF-8 bytes packed into a single byte[] with an int[] of offsets. A
+ * million albums take a handful of arrays rather than a million objects and
+ * their strings.
+ *
+ * Rows are addressed by index. The primitive getters, getArtist() and
+ * copyName() allocate nothing, so a loop over size() that uses only those is
+ * a zero-allocation scan; getName(), and so fill(), decode a new String. A
+ * table never changes after it is built and may be read from any thread.
+ */
+public final class AlbumTable {
+    public enum Column {
+        // Matching the provider's sort orders, ties are broken by ID
+        ID, ARTIST, NAME
+    }
+
+    public static final AlbumTable EMPTY = new Builder(0).build();
+
+    private final long[] ids;
+    private final int[] artistCodes;
+    private final String[] artists;
+    private final long[] artistIds;
+    private final byte[] names;
+    // Row i's name is names[nameOffsets[i]] up to names[nameOffsets[i + 1]]
+    private final int[] nameOffsets;
+    private final boolean sortedById;
+    // Row indices in ID order, built the first time an unsorted table is searched
+    private volatile int[] idOrder;
+    // Each artist code's position in artist order, built on first sort by artist
+    private volatile int[] artistRanks;
+
+    private AlbumTable(long[] ids, int[] artistCodes, String[] artists, long[] artistIds,
+                       byte[] names, int[] nameOffsets) {
+        this.ids = ids;
+        this.artistCodes = artistCodes;
+        this.artists = artists;
+        this.artistIds = artistIds;
+        this.names = names;
+        this.nameOffsets = nameOffsets;
+        boolean sorted = true;
+        for (int i = 1; i < ids.length && sorted; i++) {
+            sorted = ids[i - 1] < ids[i];
+        }
+        this.sortedById = sorted;
+    }
+
+    /**
+     * Read every row of a cursor over the AlbumCursorMapper.PROJECTION columns
+     * straight into a table, in cursor order, without creating any Album.
+     * The cursor is left open.
+     */
+    public static AlbumTable fromCursor(Cursor cursor) {
+        int idIndex = cursor.getColumnIndexOrThrow("id");
+        int artistIdIndex = cursor.getColumnIndex("artist_id");
+        int artistIndex = cursor.getColumnIndexOrThrow("artist");
+        int nameIndex = cursor.getColumnIndexOrThrow("name");
+        Builder builder = new Builder(cursor.getCount());
+        while (cursor.moveToNext()) {
+            builder.add(cursor.getLong(idIndex),
+                    artistIdIndex >= 0 ? cursor.getLong(artistIdIndex) : 0,
+                    cursor.getString(artistIndex), cursor.getString(nameIndex));
+        }
+        return builder.build();
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public long getId(int index) {
+        return ids[index];
+    }
+
+    public long getArtistId(int index) {
+        return artistIds[artistCodes[index]];
+    }
+
+    // The artist's dictionary entry, shared by every row of that artist
+    public String getArtist(int index) {
+        return artists[artistCodes[index]];
+    }
+
+    // Decodes a new String; compare names with compareNames() to avoid it
+    public String getName(int index) {
+        int start = nameOffsets[index];
+        return new String(names, start, nameOffsets[index + 1] - start, StandardCharsets.UTF_8);
+    }
+
+    // The length of a row's name in UTF-8 bytes, to size a buffer for copyName()
+    public int nameLength(int index) {
+        return nameOffsets[index + 1] - nameOffsets[index];
+    }
+
+    /**
+     * Copy a row's name as UTF-8 bytes into the start of a buffer, without
+     * decoding it
+     * @return The number of bytes copied, nameLength(index)
+     * @throws IndexOutOfBoundsException If the buffer is shorter than the name
+     */
+    public int copyName(int index, byte[] buffer) {
+        int length = nameLength(index);
+        System.arraycopy(names, nameOffsets[index], buffer, 0, length);
+        return length;
+    }
+
+    // Distinct artists in the table, for dictionary codes from getArtistCode()
+    public int getArtistCount() {
+        return artists.length;
+    }
+
+    public int getArtistCode(int index) {
+        return artistCodes[index];
+    }
+
+    public String getArtistByCode(int code) {
+        return artists[code];
+    }
+
+    // Create a new Album from a row
+    public Album getAlbum(int index) {
+        return fill(index, new Album());
+    }
+
+    // Overwrite an existing Album with a row, for scans that recycle one
+    // instance; still decodes the name into a new String
+    public Album fill(int index, Album album) {
+        album.setId(ids[index]);
+        album.setArtistId(getArtistId(index));
+        album.setArtist(getArtist(index));
+        album.setName(getName(index));
+        return album;
+    }
+
+    /**
+     * Find a row by album ID with a binary search
+     * @return The row's index, or -1 if no row has that ID
+     */
+    public int indexOf(long id) {
+        if (sortedById) {
+            int index = Arrays.binarySearch(ids, id);
+            return index >= 0 ? index : -1;
+        }
+        int[] order = idOrder;
+        if (order == null) {
+            idOrder = order = order(Column.ID);
+        }
+        int low = 0;
+        int high = order.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = ids[order[mid]];
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return order[mid];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compare two rows' names the way SQLite's NOCASE collation does, on the
+     * encoded bytes without decoding them
+     */
+    public int compareNames(int a, int b) {
+        return compareNoCase(names, nameOffsets[a], nameOffsets[a + 1],
+                names, nameOffsets[b], nameOffsets[b + 1]);
+    }
+
+    /**
+     * Get the rows in a column's order, as the provider would sort them
+     * @return The row indices, sorted; the table itself is unchanged
+     */
+    public int[] order(Column column) {
+        int[] order = new int[ids.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        if (column == Column.ID && sortedById) {
+            return order;
+        }
+        int[] ranks = column == Column.ARTIST ? artistRanks() : null;
+        mergeSort(order, new int[order.length], 0, order.length, column, ranks);
+        return order;
+    }
+
+    /**
+     * Copy the table with its rows in a column's order. The artist dictionary
+     * is shared; the other columns are rewritten so that scans of the copy
+     * read each array front to back.
+     */
+    public AlbumTable sortedBy(Column column) {
+        if (column == Column.ID && sortedById) {
+            return this;
+        }
+        int[] order = order(column);
+        long[] sortedIds = new long[order.length];
+        int[] sortedCodes = new int[order.length];
+        byte[] sortedNames = new byte[names.length];
+        int[] sortedOffsets = new int[order.length + 1];
+        int position = 0;
+        for (int i = 0; i < order.length; i++) {
+            int row = order[i];
+            sortedIds[i] = ids[row];
+            sortedCodes[i] = artistCodes[row];
+            int length = nameOffsets[row + 1] - nameOffsets[row];
+            System.arraycopy(names, nameOffsets[row], sortedNames, position, length);
+            position += length;
+            sortedOffsets[i + 1] = position;
+        }
+        return new AlbumTable(sortedIds, sortedCodes, artists, artistIds, sortedNames, sortedOffsets);
+    }
+
+    // Stable, so rows equal in the column keep their current relative order
+    private void mergeSort(int[] order, int[] scratch, int from, int to, Column column, int[] ranks) {
+        if (to - from < 2) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(order, scratch, from, mid, column, ranks);
+        mergeSort(order, scratch, mid, to, column, ranks);
+        if (compare(order[mid - 1], order[mid], column, ranks) <= 0) {
+            return;
+        }
+        System.arraycopy(order, from, scratch, from, to - from);
+        int i = from;
+        int j = mid;
+        for (int k = from; k < to; k++) {
+            if (j >= to || (i < mid && compare(scratch[i], scratch[j], column, ranks) <= 0)) {
+                order[k] = scratch[i++];
+            } else {
+                order[k] = scratch[j++];
+            }
+        }
+    }
+
+    private int compare(int a, int b, Column column, int[] ranks) {
+        int result = 0;
+        if (column == Column.ARTIST) {
+            result = Integer.compare(ranks[artistCodes[a]], ranks[artistCodes[b]]);
+        }
+        if (result == 0 && column != Column.ID) {
+            result = compareNames(a, b);
+        }
+        return result != 0 ? result : Long.compare(ids[a], ids[b]);
+    }
+
+    // Sorting the dictionary once lets rows compare artists as two ints.
+    // Artists equal under NOCASE, e.g. "Alpha" and "alpha", share a rank so
+    // their rows are ordered by name as the provider orders them.
+    private int[] artistRanks() {
+        int[] ranks = artistRanks;
+        if (ranks != null) {
+            return ranks;
+        }
+        byte[][] encoded = new byte[artists.length][];
+        Integer[] codes = new Integer[artists.length];
+        for (int i = 0; i < artists.length; i++) {
+            encoded[i] = artists[i].getBytes(StandardCharsets.UTF_8);
+            codes[i] = i;
+        }
+        Arrays.sort(codes, (a, b) -> compareNoCase(encoded[a], 0, encoded[a].length,
+                encoded[b], 0, encoded[b].length));
+        ranks = new int[artists.length];
+        int rank = 0;
+        for (int i = 0; i < codes.length; i++) {
+            if (i > 0 && compareNoCase(encoded[codes[i - 1]], 0, encoded[codes[i - 1]].length,
+                    encoded[codes[i]], 0, encoded[codes[i]].length) != 0) {
+                rank = i;
+            }
+            ranks[codes[i]] = rank;
+        }
+        artistRanks = ranks;
+        return ranks;
+    }
+
+    // SQLite's NOCASE: unsigned bytes with only ASCII letters folded
+    private static int compareNoCase(byte[] a, int aStart, int aEnd, byte[] b, int bStart, int bEnd) {
+        int length = Math.min(aEnd - aStart, bEnd - bStart);
+        for (int i = 0; i < length; i++) {
+            int x = toLower(a[aStart + i] & 0xff);
+            int y = toLower(b[bStart + i] & 0xff);
+            if (x != y) {
+                return x - y;
+            }
+        }
+        return (aEnd - aStart) - (bEnd - bStart);
+    }
+
+    private static int toLower(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    /**
+     * Appends rows to growable columns. Not thread safe; build() once.
+     */
+    public static final class Builder {
+        private static final int INITIAL_NAME_BYTES = 1024;
+
+        private long[] ids;
+        private int[] artistCodes;
+        private byte[] names;
+        private int[] nameOffsets;
+        private int size;
+        private int namesLength;
+        private final Map<String, Integer> artistCodeByName = new HashMap<>();
+        private String[] artists = new String[16];
+        private long[] artistIds = new long[16];
+
+        /**
+         * @param capacity The expected number of rows, e.g. a cursor's count
+         */
+        public Builder(int capacity) {
+            ids = new long[capacity];
+            artistCodes = new int[capacity];
+            // Name lengths are unknown until rows arrive, so start small and let
+            // add() double the buffer rather than guess per row up front
+            names = new byte[Math.min(Math.max(capacity, 1) * 16, INITIAL_NAME_BYTES)];
+            nameOffsets = new int[capacity + 1];
+        }
+
+        public Builder add(long id, long artistId, String artist, String name) {
+            if (size == ids.length) {
+                int capacity = Math.max(size * 2, 16);
+                ids = Arrays.copyOf(ids, capacity);
+                artistCodes = Arrays.copyOf(artistCodes, capacity);
+                nameOffsets = Arrays.copyOf(nameOffsets, capacity + 1);
+            }
+            ids[size] = id;
+            artistCodes[size] = codeOf(artist, artistId);
+            byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+            if (namesLength + encoded.length > names.length) {
+                names = Arrays.copyOf(names, Math.max(names.length * 2, namesLength + encoded.length));
+            }
+            System.arraycopy(encoded, 0, names, namesLength, encoded.length);
+            namesLength += encoded.length;
+            nameOffsets[++size] = namesLength;
+            return this;
+        }
+
+        public Builder add(Album album) {
+            return add(album.getId(), album.getArtistId(), album.getArtist(), album.getName());
+        }
+
+        public AlbumTable build() {
+            int artistCount = artistCodeByName.size();
+            return new AlbumTable(Arrays.copyOf(ids, size), Arrays.copyOf(artistCodes, size),
+                    Arrays.copyOf(artists, artistCount), Arrays.copyOf(artistIds, artistCount),
+                    Arrays.copyOf(names, namesLength), Arrays.copyOf(nameOffsets, size + 1));
+        }
+
+        private int codeOf(String artist, long artistId) {
+            Integer code = artistCodeByName.get(artist);
+            if (code != null) {
+                return code;
+            }
+            int newCode = artistCodeByName.size();
+            if (newCode == artists.length) {
+                artists = Arrays.copyOf(artists, newCode * 2);
+                artistIds = Arrays.copyOf(artistIds, newCode * 2);
+            }
+            artists[newCode] = ArtistNames.intern(artist);
+            artistIds[newCode] = artistId;
+            artistCodeByName.put(artist, newCode);
+            return newCode;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.albummanager.model;
+
+public class Artist {
+    private final long id;
+    private final String name;
+    private final int albumCount;
+
+    public Artist(long id, String name, int albumCount) {
+        this.id = id;
+        this.name = name;
+        this.albumCount = albumCount;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getAlbumCount() {
+        return albumCount;
+    }
+
+    // Create Artist from a row of the artists URI
+    public static Artist fromCursor(android.database.Cursor cursor) {
+        if (cursor == null) {
+            return null;
+        }
+        return new Artist(cursor.getLong(cursor.getColumnIndexOrThrow("id")),
+                ArtistNames.intern(cursor.getString(cursor.getColumnIndexOrThrow("name"))),
+                cursor.getInt(cursor.getColumnIndexOrThrow("album_count")));
+    }
+
+    @Override
+    public String toString() {
+        return "Artist{" +
+                "id=" + id +
+                ", name='" + name + '\'' +
+                ", albumCount=" + albumCount +
+                '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Artist artist = (Artist) o;
+        return id == artist.id;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (id ^ (id >>> 32));
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.albummanager.model;
+
+import android.util.LruCache;
+
+/**
+ * Process-wide interning of artist names. Albums read from the provider share
+ * one String per artist instead of holding a copy per row, which matters for
+ * large lists where most albums belong to an artist seen before.
+ */
+public final class ArtistNames {
+    // Distinct artist names kept; less frequently read artists are dropped first
+    private static final int MAX_NAMES = 4096;
+
+    private static final LruCache<String, String> names = new LruCache<>(MAX_NAMES);
+
+    private ArtistNames() {
+    }
+
+    /**
+     * @return The shared instance equal to name, or name itself the first time
+     */
+    public static String intern(String name) {
+        if (name == null) {
+            return null;
+        }
+        String shared = names.get(name);
+        if (shared != null) {
+            return shared;
+        }
+        names.put(name, name);
+        return name;
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.albummanager.model;
+
+/**
+ * One row of the albums/by_artist URI: an artist, how many albums it has and
+ * the first and last of them by ID, i.e. in the order they were added.
+ */
+public class ArtistSummary {
+    private final long artistId;
+    private final String artist;
+    private final int albumCount;
+    private final long firstAlbumId;
+    private final String firstAlbum;
+    private final long lastAlbumId;
+    private final String lastAlbum;
+
+    public ArtistSummary(long artistId, String artist, int albumCount, long firstAlbumId,
+                         String firstAlbum, long lastAlbumId, String lastAlbum) {
+        this.artistId = artistId;
+        this.artist = artist;
+        this.albumCount = albumCount;
+        this.firstAlbumId = firstAlbumId;
+        this.firstAlbum = firstAlbum;
+        this.lastAlbumId = lastAlbumId;
+        this.lastAlbum = lastAlbum;
+    }
+
+    public long getArtistId() {
+        return artistId;
+    }
+
+    public String getArtist() {
+        return artist;
+    }
+
+    public int getAlbumCount() {
+        return albumCount;
+    }
+
+    public long getFirstAlbumId() {
+        return firstAlbumId;
+    }
+
+    // Name of the first album added
+    public String getFirstAlbum() {
+        return firstAlbum;
+    }
+
+    public long getLastAlbumId() {
+        return lastAlbumId;
+    }
+
+    // Name of the last album added
+    public String getLastAlbum() {
+        return lastAlbum;
+    }
+
+    // Create ArtistSummary from a row of the albums/by_artist URI
+    public static ArtistSummary fromCursor(android.database.Cursor cursor) {
+        if (cursor == null) {
+            return null;
+        }
+        return new ArtistSummary(
+                cursor.getLong(cursor.getColumnIndexOrThrow("artist_id")),
+                ArtistNames.intern(cursor.getString(cursor.getColumnIndexOrThrow("artist"))),
+                cursor.getInt(cursor.getColumnIndexOrThrow("album_count")),
+                cursor.getLong(cursor.getColumnIndexOrThrow("first_album_id")),
+                cursor.getString(cursor.getColumnIndexOrThrow("first_album")),
+                cursor.getLong(cursor.getColumnIndexOrThrow("last_album_id")),
+                cursor.getString(cursor.getColumnIndexOrThrow("last_album")));
+    }
+
+    @Override
+    public String toString() {
+        return "ArtistSummary{" +
+                "artistId=" + artistId +
+                ", artist='" + artist + '\'' +
+                ", albumCount=" + albumCount +
+                ", firstAlbum='" + firstAlbum + '\'' +
+                ", lastAlbum='" + lastAlbum + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.albummanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.ContentObserver;
+import android.net.Uri;
+
+import com.example.albummanager.model.Album;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+@RunWith(RobolectricTestRunner.class)
+public class AlbumBatchNotificationTest {
+    // Inserts to this URI run a bulkInsert of NESTED_ROWS rows instead
+    private static final String NESTED = "nested";
+    private static final int NESTED_ROWS = 3;
+
+    // Every URI observed, in order; read by NestingAlbumProvider mid-batch
+    private static final List<Uri> notified = new ArrayList<>();
+
+    private ContentResolver resolver;
+    private AlbumManager albumManager;
+    private NestingAlbumProvider provider;
+    private final ContentObserver observer = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            notified.add(uri);
+        }
+    };
+
+    /**
+     * Calls bulkInsert from inside insert, as a provider operation in a batch
+     * might, and records how many notifications had gone out by then
+     */
+    public static class NestingAlbumProvider extends AlbumProvider {
+        int notifiedInsideBatch = -1;
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            if (uri.getQueryParameter(NESTED) == null) {
+                return super.insert(uri, values);
+            }
+            ContentValues[] rows = new ContentValues[NESTED_ROWS];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = album("Nested", "Nested " + i);
+            }
+            bulkInsert(CONTENT_URI, rows);
+            notifiedInsideBatch = notified.size();
+            return CONTENT_URI;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        notified.clear();
+        provider = Robolectric.setupContentProvider(NestingAlbumProvider.class,
+                AlbumProvider.PROVIDER_NAME);
+        resolver = RuntimeEnvironment.getApplication().getContentResolver();
+        albumManager = new AlbumManager(resolver);
+        resolver.registerContentObserver(AlbumProvider.CONTENT_URI, true, observer);
+    }
+
+    @After
+    public void tearDown() {
+        resolver.unregisterContentObserver(observer);
+    }
+
+    @Test
+    public void bulkInsert_notifiesEachRowOnce() {
+        ContentValues[] rows = new ContentValues[5];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = album("Artist", "Album " + i);
+        }
+
+        assertEquals(rows.length, resolver.bulkInsert(AlbumProvider.CONTENT_URI, rows));
+
+        assertEquals(rowUris(), new HashSet<>(notified));
+        assertEquals(rows.length, notified.size());
+    }
+
+    @Test
+    public void largeBulkInsert_notifiesTheTableOnce() {
+        ContentValues[] rows = new ContentValues[AlbumProvider.MAX_ROW_NOTIFICATIONS + 1];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = album("Artist", "Album " + i);
+        }
+
+        resolver.bulkInsert(AlbumProvider.CONTENT_URI, rows);
+
+        assertEquals(1, notified.size());
+        assertEquals(AlbumProvider.CONTENT_URI, notified.get(0));
+    }
+
+    @Test
+    public void applyBatch_notifiesOnceAfterTheLastOperation() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int i = 0; i < AlbumProvider.MAX_ROW_NOTIFICATIONS + 1; i++) {
+            operations.add(ContentProviderOperation.newInsert(AlbumProvider.CONTENT_URI)
+                    .withValues(album("Artist", "Album " + i)).build());
+        }
+
+        resolver.applyBatch(AlbumProvider.PROVIDER_NAME, operations);
+
+        // Each insert alone would notify its own row
+        assertEquals(1, notified.size());
+        assertEquals(AlbumProvider.CONTENT_URI, notified.get(0));
+    }
+
+    @Test
+    public void applyBatch_mergesRowsChangedTwice() throws Exception {
+        long id = albumManager.addAlbum("Artist", "Before");
+        notified.clear();
+        String[] byId = {String.valueOf(id)};
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(AlbumProvider.CONTENT_URI)
+                .withValues(album("Artist", "New")).build());
+        operations.add(ContentProviderOperation.newUpdate(AlbumProvider.CONTENT_URI)
+                .withSelection("id = ?", byId).withValue("name", "After").build());
+        operations.add(ContentProviderOperation.newUpdate(AlbumProvider.CONTENT_URI)
+                .withSelection("id = ?", byId).withValue("name", "Last").build());
+
+        resolver.applyBatch(AlbumProvider.PROVIDER_NAME, operations);
+
+        assertEquals(rowUris(), new HashSet<>(notified));
+        assertEquals(2, notified.size());
+    }
+
+    @Test
+    public void failedOperation_rollsBackTheBatchWithoutNotifying() throws Exception {
+        albumManager.addAlbum("Artist", "Existing");
+        notified.clear();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(AlbumProvider.CONTENT_URI)
+                .withValues(album("Artist", "Rolled back")).build());
+        operations.add(ContentProviderOperation.newDelete(AlbumProvider.CONTENT_URI)
+                .withSelection("name = ?", new String[]{"Existing"}).build());
+        // No album has this ID, so the expected count fails the batch
+        operations.add(ContentProviderOperation.newUpdate(AlbumProvider.CONTENT_URI)
+                .withSelection("id = ?", new String[]{"999"})
+                .withValue("name", "Missing").withExpectedCount(1).build());
+
+        try {
+            resolver.applyBatch(AlbumProvider.PROVIDER_NAME, operations);
+            fail("Expected the batch to fail");
+        } catch (OperationApplicationException expected) {
+            // the whole batch is rolled back
+        }
+
+        assertTrue(notified.isEmpty());
+        assertEquals(1, albumManager.getAllAlbums().size());
+        assertEquals("Existing", albumManager.getAllAlbums().get(0).getName());
+    }
+
+    @Test
+    public void nestedBulkInsert_waitsForTheOuterBatch() throws Exception {
+        Uri nested = AlbumProvider.CONTENT_URI.buildUpon().appendQueryParameter(NESTED, "1").build();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(AlbumProvider.CONTENT_URI)
+                .withValues(album("Artist", "Before")).build());
+        operations.add(ContentProviderOperation.newInsert(nested)
+                .withValues(album("Ignored", "Ignored")).build());
+        operations.add(ContentProviderOperation.newInsert(AlbumProvider.CONTENT_URI)
+                .withValues(album("Artist", "After")).build());
+
+        resolver.applyBatch(AlbumProvider.PROVIDER_NAME, operations);
+
+        assertEquals(0, provider.notifiedInsideBatch);
+        assertEquals(NESTED_ROWS + 2, albumManager.getAllAlbums().size());
+        assertEquals(rowUris(), new HashSet<>(notified));
+        assertEquals(NESTED_ROWS + 2, notified.size());
+    }
+
+    // One albums/<id> URI per album now in the provider
+    private Set<Uri> rowUris() {
+        Set<Uri> uris = new HashSet<>();
+        for (Album album : albumManager.getAllAlbums()) {
+            uris.add(ContentUris.withAppendedId(AlbumProvider.CONTENT_URI, album.getId()));
+        }
+        return uris;
+    }
+
+    private static ContentValues album(String artist, String name) {
+        ContentValues values = new ContentValues();
+        values.put("artist", artist);
+        values.put("name", name);
+        return values;
+    }
+}
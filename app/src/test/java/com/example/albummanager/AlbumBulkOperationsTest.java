@@ -0,0 +1,79 @@
+package com.example.albummanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.albummanager.model.Album;
+import com.example.albummanager.model.Artist;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class AlbumBulkOperationsTest {
+    // Two full chunks and a partial one
+    private static final int CATALOG = AlbumManager.BULK_CHUNK_SIZE * 2 + 7;
+
+    private AlbumManager albumManager;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(AlbumProvider.class, AlbumProvider.PROVIDER_NAME);
+        albumManager = new AlbumManager(RuntimeEnvironment.getApplication().getContentResolver());
+        List<Album> albums = new ArrayList<>();
+        for (int i = 0; i < CATALOG; i++) {
+            albums.add(new Album("Prolific", "Album " + i));
+        }
+        albums.add(new Album("Other", "Other album"));
+        albumManager.addAlbums(albums);
+    }
+
+    @After
+    public void tearDown() {
+        albumManager.close();
+    }
+
+    @Test
+    public void deleteByArtist_deletesInChunksWithProgress() {
+        List<int[]> progress = new ArrayList<>();
+
+        int deleted = albumManager.deleteByArtist(artistId("Prolific"),
+                (done, total) -> progress.add(new int[]{done, total}));
+
+        assertEquals(CATALOG, deleted);
+        assertEquals(3, progress.size());
+        assertEquals(AlbumManager.BULK_CHUNK_SIZE, progress.get(0)[0]);
+        assertEquals(CATALOG, progress.get(2)[0]);
+        assertEquals(CATALOG, progress.get(2)[1]);
+        assertEquals(1, albumManager.getAllAlbums().size());
+    }
+
+    @Test
+    public void renameArtist_movesEveryAlbum() {
+        int moved = albumManager.renameArtist(artistId("Prolific"), "Other", null);
+
+        assertEquals(CATALOG, moved);
+        List<Artist> artists = albumManager.getArtists();
+        assertEquals(1, artists.size());
+        assertEquals(CATALOG + 1, artists.get(0).getAlbumCount());
+        assertTrue(albumManager.searchAlbumsByArtist("Prolific").isEmpty());
+        assertEquals(CATALOG + 1, albumManager.search("Other", CATALOG + 10).size());
+    }
+
+    private long artistId(String name) {
+        for (Artist artist : albumManager.getArtists()) {
+            if (artist.getName().equals(name)) {
+                return artist.getId();
+            }
+        }
+        throw new AssertionError("No artist " + name);
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.albummanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Looper;
+
+import com.example.albummanager.model.Album;
+import com.example.albummanager.model.Artist;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+@RunWith(RobolectricTestRunner.class)
+public class AlbumCacheTest {
+    @Test
+    public void get_afterPut_hitsWithACopy() {
+        AlbumCache cache = new AlbumCache(10);
+        Album album = new Album(1, "Artist", "Album");
+        album.setArtistId(7);
+
+        cache.putIfCurrent(album, cache.generation());
+        Album cached = cache.get(1);
+
+        assertNotSame(album, cached);
+        assertEquals("Album", cached.getName());
+        assertEquals(7, cached.getArtistId());
+        assertEquals(1, cache.getStats().hits);
+        assertNull(cache.get(2));
+        assertEquals(1, cache.getStats().misses);
+    }
+
+    @Test
+    public void cachedAlbum_isNotChangedThroughEitherReference() {
+        AlbumCache cache = new AlbumCache(10);
+        Album album = new Album(1, "Artist", "Album");
+        cache.putWritten(album, cache.generation());
+
+        album.setName("Changed after put");
+        cache.get(1).setName("Changed after get");
+
+        assertEquals("Album", cache.get(1).getName());
+    }
+
+    @Test
+    public void putIfCurrent_isDroppedAfterAnyInvalidationOrWrite() {
+        AlbumCache cache = new AlbumCache(10);
+
+        long generation = cache.generation();
+        cache.remove(1);
+        cache.putIfCurrent(new Album(1, "Artist", "Stale"), generation);
+        assertNull(cache.get(1));
+
+        generation = cache.generation();
+        cache.clear();
+        cache.putIfCurrent(new Album(1, "Artist", "Stale"), generation);
+        assertNull(cache.get(1));
+
+        generation = cache.generation();
+        cache.putWritten(new Album(1, "Artist", "Written"), cache.generation());
+        cache.putIfCurrent(new Album(1, "Artist", "Stale"), generation);
+        assertEquals("Written", cache.get(1).getName());
+
+        generation = cache.generation();
+        cache.remove(3);
+        cache.putWritten(new Album(3, "Artist", "Raced"), generation);
+        assertNull(cache.get(3));
+
+        generation = cache.generation();
+        cache.putIfCurrent(new Album(2, "Artist", "Current"), generation);
+        assertEquals("Current", cache.get(2).getName());
+    }
+
+    @Test
+    public void ownWrites_areCachedAsTheProviderStoredThem() {
+        Robolectric.setupContentProvider(AlbumProvider.class, AlbumProvider.PROVIDER_NAME);
+        AlbumManager albumManager = new AlbumManager(
+                RuntimeEnvironment.getApplication().getContentResolver(), 10);
+        try {
+            long id = albumManager.addAlbum("Artist", "Album");
+            shadowOf(Looper.getMainLooper()).idle();
+            assertEquals(artistId(albumManager, "Artist"), albumManager.getAlbumById(id).getArtistId());
+            assertEquals(1, albumManager.getCacheStats().hits);
+
+            albumManager.updateAlbum(new Album(id, "Other", "Renamed"));
+            shadowOf(Looper.getMainLooper()).idle();
+            Album updated = albumManager.getAlbumById(id);
+
+            assertEquals(2, albumManager.getCacheStats().hits);
+            assertEquals("Renamed", updated.getName());
+            assertEquals(artistId(albumManager, "Other"), updated.getArtistId());
+
+            albumManager.deleteAlbum(id);
+            assertNull(albumManager.getAlbumById(id));
+        } finally {
+            albumManager.close();
+        }
+    }
+
+    @Test
+    public void getAlbumById_afterOwnWrites_hasProviderArtistId() {
+        Robolectric.setupContentProvider(AlbumProvider.class, AlbumProvider.PROVIDER_NAME);
+        AlbumManager albumManager = new AlbumManager(
+                RuntimeEnvironment.getApplication().getContentResolver(), 10);
+        try {
+            albumManager.addAlbum("Other", "Other album");
+            long id = albumManager.addAlbum("Artist", "Album");
+            Album added = albumManager.getAlbumById(id);
+            assertEquals(artistId(albumManager, "Artist"), added.getArtistId());
+
+            // An edited copy without the artist ID, as MainActivity builds it
+            albumManager.updateAlbum(new Album(id, "Other", "Album"));
+            Album updated = albumManager.getAlbumById(id);
+
+            assertEquals(artistId(albumManager, "Other"), updated.getArtistId());
+            assertEquals(updated.getArtistId(), albumManager.getAlbumById(id).getArtistId());
+        } finally {
+            albumManager.close();
+        }
+    }
+
+    @Test
+    public void getAlbumById_isInvalidatedByAnotherClientsWrite() {
+        Robolectric.setupContentProvider(AlbumProvider.class, AlbumProvider.PROVIDER_NAME);
+        AlbumManager cached = new AlbumManager(
+                RuntimeEnvironment.getApplication().getContentResolver(), 10);
+        AlbumManager other = new AlbumManager(RuntimeEnvironment.getApplication().getContentResolver());
+        try {
+            long id = other.addAlbum("Artist", "Album");
+            assertEquals("Album", cached.getAlbumById(id).getName());
+            assertEquals("Album", cached.getAlbumById(id).getName());
+            assertEquals(1, cached.getCacheStats().hits);
+
+            other.updateAlbum(new Album(id, "Artist", "Renamed elsewhere"));
+            shadowOf(Looper.getMainLooper()).idle();
+
+            assertEquals("Renamed elsewhere", cached.getAlbumById(id).getName());
+        } finally {
+            cached.close();
+            other.close();
+        }
+    }
+
+    private static long artistId(AlbumManager albumManager, String name) {
+        for (Artist artist : albumManager.getArtists()) {
+            if (artist.getName().equals(name)) {
+                return artist.getId();
+            }
+        }
+        throw new AssertionError("No artist " + name);
+    }
+}
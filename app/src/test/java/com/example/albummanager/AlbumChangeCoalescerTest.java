@@ -0,0 +1,187 @@
+package com.example.albummanager;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+public class AlbumChangeCoalescerTest {
+    private static final long WINDOW_MS = 300;
+
+    private final List<Delivery> deliveries = new ArrayList<>();
+    private AlbumChangeCoalescer coalescer;
+
+    private static final class Delivery {
+        final int changes;
+        final long[] ids;
+        final boolean selfChange;
+
+        Delivery(int changes, long[] ids, boolean selfChange) {
+            this.changes = changes;
+            this.ids = ids;
+            this.selfChange = selfChange;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        coalescer = new AlbumChangeCoalescer(new Handler(Looper.getMainLooper()), WINDOW_MS,
+                new AlbumManager.AlbumChangeListener() {
+                    @Override
+                    public void onAlbumsChanged(int changes, long[] ids) {
+                        onAlbumsChanged(changes, ids, false);
+                    }
+
+                    @Override
+                    public void onAlbumsChanged(int changes, long[] ids, boolean selfChange) {
+                        deliveries.add(new Delivery(changes, ids, selfChange));
+                    }
+                });
+    }
+
+    @Test
+    public void changesWithinWindow_areDeliveredOnceWhenItCloses() {
+        coalescer.onAlbumsChanged(AlbumManager.CHANGE_INSERT, new long[]{3}, false);
+        advance(WINDOW_MS / 2);
+        coalescer.onAlbumsChanged(AlbumManager.CHANGE_UPDATE, new long[]{1, 3}, false);
+        advance(WINDOW_MS / 2 - 1);
+        assertTrue(deliveries.isEmpty());
+
+        advance(1);
+        assertEquals(1, deliveries.size());
+        Delivery delivery = deliveries.get(0);
+        assertEquals(AlbumManager.CHANGE_INSERT | AlbumManager.CHANGE_UPDATE, delivery.changes);
+        assertArrayEquals(new long[]{1, 3}, delivery.ids);
+        assertFalse(delivery.selfChange);
+    }
+
+    @Test
+    public void steadyChanges_doNotExtendTheWindow() {
+        for (int i = 0; i < 10; i++) {
+            coalescer.onAlbumsChanged(AlbumManager.CHANGE_INSERT, new long[]{i}, false);
+            advance(WINDOW_MS / 4);
+        }
+        // Ten changes a quarter window apart close at least two windows
+        assertTrue(deliveries.size() >= 2);
+        advance(WINDOW_MS);
+        int delivered = 0;
+        for (Delivery delivery : deliveries) {
+            delivered += delivery.ids.length;
+        }
+        assertEquals(10, delivered);
+    }
+
+    @Test
+    public void changesAfterFlush_openANewWindow() {
+        coalescer.onAlbumsChanged(AlbumManager.CHANGE_DELETE, new long[]{1}, false);
+        advance(WINDOW_MS);
+        coalescer.onAlbumsChanged(AlbumManager.CHANGE_INSERT, new long[]{2}, true);
+        advance(WINDOW_MS);
+
+        assertEquals(2, deliveries.size());
+        assertEquals(AlbumManager.CHANGE_DELETE, deliveries.get(0).changes);
+        assertArrayEquals(new long[]{1}, deliveries.get(0).ids);
+        assertEquals(AlbumManager.CHANGE_INSERT, deliveries.get(1).changes);
+        assertArrayEquals(new long[]{2}, deliveries.get(1).ids);
+        assertTrue(deliveries.get(1).selfChange);
+    }
+
+    @Test
+    public void unknownChange_makesTheBatchUnknown() {
+        coalescer.onAlbumsChanged(AlbumManager.CHANGE_INSERT, new long[]{1}, false);
+        coalescer.onAlbumsChanged(0, null, false);
+        coalescer.onAlbumsChanged(AlbumManager.CHANGE_UPDATE, new long[]{2}, false);
+        advance(WINDOW_MS);
+
+        assertEquals(1, deliveries.size());
+        assertEquals(0, deliveries.get(0).changes);
+        assertNull(deliveries.get(0).ids);
+    }
+
+    @Test
+    public void tooManyIds_overflowToNull() {
+        long[] ids = new long[AlbumChangeCoalescer.MAX_IDS];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i + 1;
+        }
+        coalescer.onAlbumsChanged(AlbumManager.CHANGE_INSERT, ids, false);
+        coalescer.onAlbumsChanged(AlbumManager.CHANGE_INSERT, new long[]{ids.length + 1}, false);
+        advance(WINDOW_MS);
+
+        assertEquals(1, deliveries.size());
+        assertEquals(AlbumManager.CHANGE_INSERT, deliveries.get(0).changes);
+        assertNull(deliveries.get(0).ids);
+    }
+
+    @Test
+    public void exactlyMaxIds_areStillListed() {
+        long[] ids = new long[AlbumChangeCoalescer.MAX_IDS];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = ids.length - i;
+        }
+        coalescer.onAlbumsChanged(AlbumManager.CHANGE_UPDATE, ids, false);
+        advance(WINDOW_MS);
+
+        assertEquals(AlbumChangeCoalescer.MAX_IDS, deliveries.get(0).ids.length);
+        assertEquals(1, deliveries.get(0).ids[0]);
+    }
+
+    @Test
+    public void selfChange_onlyIfEveryChangeInTheBatchIsSelf() {
+        coalescer.onAlbumsChanged(AlbumManager.CHANGE_INSERT, new long[]{1}, true);
+        coalescer.onAlbumsChanged(AlbumManager.CHANGE_UPDATE, new long[]{1}, true);
+        advance(WINDOW_MS);
+        coalescer.onAlbumsChanged(AlbumManager.CHANGE_INSERT, new long[]{2}, true);
+        coalescer.onAlbumsChanged(AlbumManager.CHANGE_INSERT, new long[]{3}, false);
+        coalescer.onAlbumsChanged(AlbumManager.CHANGE_INSERT, new long[]{4}, true);
+        advance(WINDOW_MS);
+
+        assertEquals(2, deliveries.size());
+        assertTrue(deliveries.get(0).selfChange);
+        assertArrayEquals(new long[]{1}, deliveries.get(0).ids);
+        assertFalse(deliveries.get(1).selfChange);
+        assertArrayEquals(new long[]{2, 3, 4}, deliveries.get(1).ids);
+    }
+
+    @Test
+    public void twoArgumentChange_isNotSelf() {
+        coalescer.onAlbumsChanged(AlbumManager.CHANGE_INSERT, new long[]{1}, true);
+        coalescer.onAlbumsChanged(AlbumManager.CHANGE_INSERT, new long[]{2});
+        advance(WINDOW_MS);
+
+        assertFalse(deliveries.get(0).selfChange);
+    }
+
+    @Test
+    public void cancel_dropsPendingChanges() {
+        coalescer.onAlbumsChanged(AlbumManager.CHANGE_INSERT, new long[]{1}, false);
+        coalescer.cancel();
+        advance(WINDOW_MS);
+        assertTrue(deliveries.isEmpty());
+
+        coalescer.onAlbumsChanged(AlbumManager.CHANGE_UPDATE, new long[]{2}, false);
+        advance(WINDOW_MS);
+        assertEquals(1, deliveries.size());
+        assertEquals(AlbumManager.CHANGE_UPDATE, deliveries.get(0).changes);
+        assertArrayEquals(new long[]{2}, deliveries.get(0).ids);
+    }
+
+    private static void advance(long ms) {
+        shadowOf(Looper.getMainLooper()).idleFor(ms, TimeUnit.MILLISECONDS);
+    }
+}
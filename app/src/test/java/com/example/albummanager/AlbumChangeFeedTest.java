@@ -0,0 +1,200 @@
+package com.example.albummanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.albummanager.model.Album;
+import com.example.albummanager.model.AlbumChange;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Syncs an in-process stand-in for AlbumClient through the changes URI while
+ * another AlbumManager writes, and checks its copy against the provider.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AlbumChangeFeedTest {
+    private AlbumManager writer;
+    private StandInClient client;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(AlbumProvider.class, AlbumProvider.PROVIDER_NAME);
+        writer = new AlbumManager(RuntimeEnvironment.getApplication().getContentResolver());
+        client = new StandInClient(
+                new AlbumManager(RuntimeEnvironment.getApplication().getContentResolver()));
+    }
+
+    @After
+    public void tearDown() {
+        writer.close();
+    }
+
+    @Test
+    public void firstSync_readsEveryAlbum() {
+        writer.addAlbums(Arrays.asList(new Album("Artist 1", "Album 1"),
+                new Album("Artist 2", "Album 2")));
+
+        client.sync();
+
+        assertFalse(client.reloaded);
+        assertMatchesProvider();
+    }
+
+    @Test
+    public void laterSyncs_applyOnlyNewChanges() {
+        long first = writer.addAlbum("Artist 1", "Album 1");
+        long second = writer.addAlbum("Artist 2", "Album 2");
+        client.sync();
+
+        writer.updateAlbum(new Album(first, "Artist 1", "Renamed"));
+        writer.deleteAlbum(second);
+        long third = writer.addAlbum("Artist 3", "Album 3");
+        client.sync();
+
+        assertEquals(3, client.lastChanges.size());
+        assertMatchesProvider();
+        assertEquals("Renamed", client.albums.get(first).getName());
+        assertTrue(client.albums.containsKey(third));
+    }
+
+    @Test
+    public void changesWithinOneSync_areMergedPerAlbum() {
+        client.sync();
+        long id = writer.addAlbum("Artist 1", "Album 1");
+        writer.updateAlbum(new Album(id, "Artist 1", "Album 1 (Remastered)"));
+        long gone = writer.addAlbum("Artist 2", "Album 2");
+        writer.deleteAlbum(gone);
+
+        client.sync();
+
+        assertEquals(2, client.lastChanges.size());
+        AlbumChange kept = client.lastChanges.get(0);
+        assertEquals(AlbumManager.CHANGE_INSERT | AlbumManager.CHANGE_UPDATE, kept.getChanges());
+        AlbumChange deleted = client.lastChanges.get(1);
+        assertEquals(AlbumManager.CHANGE_INSERT | AlbumManager.CHANGE_DELETE, deleted.getChanges());
+        assertTrue(deleted.isDeleted());
+        assertMatchesProvider();
+    }
+
+    @Test
+    public void pagedChanges_keepEveryChangeOfAnAlbum() {
+        long first = writer.addAlbum("Artist 1", "Album 1");
+        long second = writer.addAlbum("Artist 2", "Album 2");
+        long third = writer.addAlbum("Artist 3", "Album 3");
+        writer.updateAlbum(new Album(first, "Artist 1", "Renamed"));
+
+        Map<Long, Integer> changes = new TreeMap<>();
+        long seq = 0;
+        int pages = 0;
+        List<AlbumChange> page;
+        while (!(page = readChanges(seq, 2)).isEmpty()) {
+            pages++;
+            for (AlbumChange change : page) {
+                changes.merge(change.getAlbumId(), change.getChanges(), (a, b) -> a | b);
+                seq = Math.max(seq, change.getSeq());
+            }
+        }
+
+        assertEquals(2, pages);
+        assertEquals(AlbumManager.CHANGE_INSERT | AlbumManager.CHANGE_UPDATE,
+                (int) changes.get(first));
+        assertEquals(AlbumManager.CHANGE_INSERT, (int) changes.get(second));
+        assertEquals(AlbumManager.CHANGE_INSERT, (int) changes.get(third));
+    }
+
+    @Test
+    public void seqFromAnotherDatabase_forcesReload() {
+        writer.addAlbum("Artist 1", "Album 1");
+        client.seq = Long.MAX_VALUE / 2;
+
+        client.sync();
+
+        assertTrue(client.reloaded);
+        assertMatchesProvider();
+    }
+
+    private static List<AlbumChange> readChanges(long since, int limit) {
+        Uri uri = AlbumProvider.CHANGES_URI.buildUpon()
+                .appendQueryParameter(AlbumProvider.QUERY_SINCE, Long.toString(since))
+                .appendQueryParameter(AlbumProvider.QUERY_LIMIT, Integer.toString(limit))
+                .build();
+        List<AlbumChange> changes = new ArrayList<>();
+        try (Cursor cursor = RuntimeEnvironment.getApplication().getContentResolver()
+                .query(uri, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                changes.add(AlbumChange.fromCursor(cursor));
+            }
+        }
+        return changes;
+    }
+
+    private void assertMatchesProvider() {
+        List<Album> expected = writer.getAllAlbums();
+        assertEquals(expected.size(), client.albums.size());
+        for (Album album : expected) {
+            Album copy = client.albums.get(album.getId());
+            assertNotNull(album.toString(), copy);
+            assertEquals(album.getArtist(), copy.getArtist());
+            assertEquals(album.getName(), copy.getName());
+        }
+    }
+
+    /**
+     * Keeps a copy of the library the way a peer app would: a full read when
+     * the change log cannot bring it up to date, deltas otherwise
+     */
+    private static class StandInClient {
+        final AlbumManager albumManager;
+        final Map<Long, Album> albums = new TreeMap<>();
+        List<AlbumChange> lastChanges = new ArrayList<>();
+        long seq;
+        boolean reloaded;
+
+        StandInClient(AlbumManager albumManager) {
+            this.albumManager = albumManager;
+        }
+
+        void sync() {
+            AlbumManager.ChangeSet changeSet = albumManager.getChangesSince(seq);
+            assertNotNull(changeSet);
+            reloaded = !changeSet.isComplete();
+            if (reloaded) {
+                // Changes committed during the reload are applied again by the
+                // next sync, which is harmless as entries are applied as upserts
+                albums.clear();
+                for (Album album : albumManager.getAllAlbums()) {
+                    albums.put(album.getId(), album);
+                }
+                lastChanges = new ArrayList<>();
+            } else {
+                for (AlbumChange change : changeSet.getChanges()) {
+                    if (change.isDeleted()) {
+                        albums.remove(change.getAlbumId());
+                    } else {
+                        albums.put(change.getAlbumId(), change.getAlbum());
+                    }
+                }
+                lastChanges = changeSet.getChanges();
+            }
+            seq = changeSet.getLatestSeq();
+        }
+    }
+}
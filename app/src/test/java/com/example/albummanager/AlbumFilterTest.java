@@ -0,0 +1,97 @@
+package com.example.albummanager;
+
+import static org.junit.Assert.assertEquals;
+
+import com.example.albummanager.AlbumManager.AlbumFilter;
+import com.example.albummanager.AlbumManager.AlbumFilter.Match;
+import com.example.albummanager.model.Album;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class AlbumFilterTest {
+    private AlbumManager albumManager;
+    private AlbumReplica.Snapshot snapshot;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(AlbumProvider.class, AlbumProvider.PROVIDER_NAME);
+        albumManager = new AlbumManager(RuntimeEnvironment.getApplication().getContentResolver());
+        albumManager.addAlbums(Arrays.asList(
+                new Album("The Beatles", "Abbey Road"),
+                new Album("The Beatles", "Let It Be"),
+                new Album("Beatles Tribute", "Abbey Road Live"),
+                new Album("Pink Floyd", "The Wall"),
+                new Album("Pink Floyd", "Live at Pompeii"),
+                new Album("Nirvana", "MTV Unplugged in New York"),
+                new Album("100% Jazz", "Take_Five")));
+        AlbumReplica replica = new AlbumReplica(albumManager);
+        snapshot = replica.sync();
+        replica.close();
+    }
+
+    @After
+    public void tearDown() {
+        albumManager.close();
+    }
+
+    @Test
+    public void artistAndName_mustBothMatch() {
+        AlbumFilter filter = AlbumFilter.ALL
+                .artist(Match.CONTAINS, "beatles")
+                .name(Match.PREFIX, "abbey");
+
+        assertNames(filter, "Abbey Road", "Abbey Road Live");
+    }
+
+    @Test
+    public void anyOfTerms_matchesEither() {
+        AlbumFilter filter = AlbumFilter.ALL.name(Match.CONTAINS, "LIVE", "unplugged");
+
+        assertNames(filter, "Abbey Road Live", "Live at Pompeii", "MTV Unplugged in New York");
+    }
+
+    @Test
+    public void equals_ignoresCaseButNotExtraText() {
+        AlbumFilter filter = AlbumFilter.ALL.artist(Match.EQUALS, "the beatles");
+
+        assertNames(filter, "Abbey Road", "Let It Be");
+    }
+
+    @Test
+    public void wildcardCharacters_matchLiterally() {
+        assertNames(AlbumFilter.ALL.artist(Match.PREFIX, "100%"), "Take_Five");
+        assertNames(AlbumFilter.ALL.name(Match.CONTAINS, "e_f"), "Take_Five");
+        assertNames(AlbumFilter.ALL.name(Match.CONTAINS, "e f"));
+    }
+
+    @Test
+    public void all_matchesEveryAlbum() {
+        assertEquals(7, albumManager.findAlbums(AlbumFilter.ALL).size());
+        assertEquals(7, albumManager.findAlbums(AlbumFilter.ALL, snapshot).size());
+    }
+
+    // Both paths must agree, in ID order
+    private void assertNames(AlbumFilter filter, String... expected) {
+        assertEquals(Arrays.asList(expected), names(albumManager.findAlbums(filter)));
+        assertEquals(Arrays.asList(expected), names(albumManager.findAlbums(filter, snapshot)));
+    }
+
+    private static List<String> names(List<Album> albums) {
+        List<String> names = new ArrayList<>();
+        for (Album album : albums) {
+            names.add(album.getName());
+        }
+        return names;
+    }
+}
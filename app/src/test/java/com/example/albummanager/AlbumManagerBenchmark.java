@@ -0,0 +1,203 @@
+package com.example.albummanager;
+
+import static org.junit.Assume.assumeTrue;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import com.example.albummanager.model.Album;
+import com.example.albummanager.model.AlbumCursorMapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Host-JVM benchmarks for the AlbumManager and AlbumProvider hot paths, run
+ * against a real AlbumProvider under Robolectric. Each operation reports
+ * throughput, latency percentiles and bytes allocated per call on the
+ * benchmark thread.
+ *
+ * Skipped by default; see the testOptions block in app/build.gradle for the
+ * properties that enable it and choose the table sizes.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+public class AlbumManagerBenchmark {
+    private static final int ARTISTS = 2_000;
+    private static final int SEED_BATCH = 10_000;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "rows={0}")
+    public static Collection<Object[]> rows() {
+        List<Object[]> sizes = new ArrayList<>();
+        for (String rows : System.getProperty("albumBenchmarkRows", "1000,100000").split(",")) {
+            sizes.add(new Object[]{Integer.parseInt(rows.trim())});
+        }
+        return sizes;
+    }
+
+    private final int rows;
+    private AlbumManager albumManager;
+    private ContentResolver contentResolver;
+
+    public AlbumManagerBenchmark(int rows) {
+        this.rows = rows;
+    }
+
+    @Before
+    public void setUp() {
+        assumeTrue("Benchmarks disabled, pass -PalbumBenchmarks=true",
+                Boolean.getBoolean("albumBenchmarks"));
+        Robolectric.setupContentProvider(AlbumProvider.class, AlbumProvider.PROVIDER_NAME);
+        contentResolver = RuntimeEnvironment.getApplication().getContentResolver();
+        albumManager = new AlbumManager(contentResolver);
+        List<Album> batch = new ArrayList<>(SEED_BATCH);
+        for (int i = 0; i < rows; i++) {
+            batch.add(new Album(artistName(i), "Album " + i));
+            if (batch.size() == SEED_BATCH || i == rows - 1) {
+                albumManager.addAlbums(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (albumManager != null) {
+            albumManager.close();
+        }
+    }
+
+    @Test
+    public void addAlbum() {
+        int[] next = {rows};
+        measure("addAlbum", 2_000, () -> {
+            int i = next[0]++;
+            albumManager.addAlbum(artistName(i), "Album " + i);
+        });
+    }
+
+    @Test
+    public void getAllAlbums() {
+        measure("getAllAlbums", iterationsFor(20), albumManager::getAllAlbums);
+    }
+
+    @Test
+    public void getAlbumById() {
+        Random random = new Random(42);
+        measure("getAlbumById", 10_000, () -> albumManager.getAlbumById(1 + random.nextInt(rows)));
+    }
+
+    @Test
+    public void searchAlbumsByArtist() {
+        Random random = new Random(42);
+        measure("searchAlbumsByArtist", iterationsFor(50),
+                () -> albumManager.searchAlbumsByArtist(artistName(random.nextInt(ARTISTS))));
+    }
+
+    @Test
+    public void searchAlbumsByName() {
+        Random random = new Random(42);
+        measure("searchAlbumsByName", iterationsFor(50),
+                () -> albumManager.searchAlbumsByName("Album " + random.nextInt(rows)));
+    }
+
+    // Artist prefix any-of three terms, and name contains one of two
+    private static final AlbumManager.AlbumFilter COMPOUND_FILTER = AlbumManager.AlbumFilter.ALL
+            .artist(AlbumManager.AlbumFilter.Match.PREFIX, "artist 12", "artist 7", "artist 1999")
+            .name(AlbumManager.AlbumFilter.Match.CONTAINS, "7", "42");
+
+    @Test
+    public void findAlbums() {
+        measure("findAlbums", iterationsFor(50), () -> albumManager.findAlbums(COMPOUND_FILTER));
+    }
+
+    @Test
+    public void findAlbumsInSnapshot() {
+        // Allocation is reported for the calling thread only, not the fork-join workers
+        AlbumReplica replica = new AlbumReplica(albumManager);
+        try {
+            AlbumReplica.Snapshot snapshot = replica.sync();
+            measure("findAlbums(snapshot)", iterationsFor(500),
+                    () -> albumManager.findAlbums(COMPOUND_FILTER, snapshot));
+        } finally {
+            replica.close();
+        }
+    }
+
+    @Test
+    public void albumFromCursor() {
+        // Per-row mapping cost only: the cursor is filled before timing starts
+        Cursor cursor = contentResolver.query(AlbumProvider.CONTENT_URI,
+                AlbumCursorMapper.PROJECTION, null, null, null);
+        try {
+            cursor.getCount();
+            measure("Album.fromCursor", Math.max(rows, 10_000), () -> {
+                if (!cursor.moveToNext()) {
+                    cursor.moveToFirst();
+                }
+                Album.fromCursor(cursor);
+            });
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String artistName(int i) {
+        return "Artist " + (i % ARTISTS);
+    }
+
+    // Full scans get fewer iterations as the table grows
+    private int iterationsFor(int atThousandRows) {
+        return Math.max(3, atThousandRows * 1_000 / Math.max(rows, 1_000));
+    }
+
+    private void measure(String operation, int iterations, Runnable body) {
+        int warmup = Math.max(1, iterations / 5);
+        for (int i = 0; i < warmup; i++) {
+            body.run();
+        }
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long[] nanos = new long[iterations];
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            long begin = System.nanoTime();
+            body.run();
+            nanos[i] = System.nanoTime() - begin;
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        Arrays.sort(nanos);
+        System.out.printf("%-22s rows=%-8d ops/s=%-10.0f p50=%-9s p90=%-9s p99=%-9s max=%-9s alloc=%d B/op%n",
+                operation, rows, iterations * 1e9 / elapsed,
+                format(percentile(nanos, 0.50)), format(percentile(nanos, 0.90)),
+                format(percentile(nanos, 0.99)), format(nanos[iterations - 1]),
+                allocated / iterations);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.round(percentile * (sorted.length - 1)))];
+    }
+
+    private static String format(long nanos) {
+        if (nanos >= 1_000_000) {
+            return String.format("%.2fms", nanos / 1e6);
+        }
+        return String.format("%.1fus", nanos / 1e3);
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.albummanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.albummanager.model.Album;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Upgrades databases written by earlier versions of the app and checks that
+ * no album is lost or renumbered on the way to the current schema.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AlbumMigrationTest {
+    private static final int ALBUMS = 10;
+
+    private Context context;
+    private File path;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        path = context.getDatabasePath(AlbumProvider.DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase.deleteDatabase(path);
+    }
+
+    @Test
+    public void upgradeFromVersion1_keepsEveryAlbum() {
+        assertUpgrades(1);
+    }
+
+    @Test
+    public void upgradeFromVersion2_keepsEveryAlbum() {
+        assertUpgrades(2);
+    }
+
+    @Test
+    public void upgradeFromVersion3_keepsEveryAlbum() {
+        assertUpgrades(3);
+    }
+
+    @Test
+    public void freshInstall_matchesUpgradedSchema() {
+        SQLiteDatabase fresh = SQLiteDatabase.create(null);
+        SQLiteDatabase upgraded = SQLiteDatabase.create(null);
+        try {
+            AlbumProvider.DatabaseHelper.createSchema(fresh);
+            upgraded.execSQL(AlbumProvider.CREATE_DB_TABLE);
+            AlbumProvider.DatabaseHelper.migrate(upgraded, 1, AlbumProvider.DATABASE_VERSION);
+
+            assertEquals(schema(upgraded), schema(fresh));
+        } finally {
+            fresh.close();
+            upgraded.close();
+        }
+    }
+
+    private void assertUpgrades(int fromVersion) {
+        List<Long> ids = createOldDatabase(fromVersion);
+        // The highest ID was deleted, so AUTOINCREMENT must continue past it
+        long maxId = ALBUMS;
+
+        AlbumProvider.DatabaseHelper helper =
+                new AlbumProvider.DatabaseHelper(context, StorageProfile.DEFAULT);
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            assertEquals(AlbumProvider.DATABASE_VERSION, db.getVersion());
+            assertEquals(ids, longs(db, "SELECT id FROM " + AlbumProvider.TABLE_NAME + " ORDER BY id"));
+            assertEquals(ids, longs(db, "SELECT id FROM " + AlbumProvider.ALBUMS_VIEW_NAME
+                    + " ORDER BY id"));
+            assertEquals(maxId, (long) longs(db, "SELECT seq FROM sqlite_sequence WHERE name = '"
+                    + AlbumProvider.TABLE_NAME + "'").get(0));
+            assertNoRows(db, "PRAGMA foreign_key_check");
+            assertEquals("ok", string(db, "PRAGMA integrity_check"));
+        } finally {
+            helper.close();
+        }
+
+        Robolectric.setupContentProvider(AlbumProvider.class, AlbumProvider.PROVIDER_NAME);
+        AlbumManager albumManager = new AlbumManager(context.getContentResolver());
+        try {
+            List<Long> found = new ArrayList<>();
+            for (Album album : albumManager.search("album", ALBUMS * 2)) {
+                found.add(album.getId());
+            }
+            found.sort(null);
+            assertEquals(ids, found);
+            assertEquals("Album 3", albumManager.getAlbumById(3).getName());
+            assertEquals("Artist 0", albumManager.getAlbumById(3).getArtist());
+            assertEquals(maxId + 1, albumManager.addAlbum("Artist 0", "After upgrade"));
+        } finally {
+            albumManager.close();
+        }
+    }
+
+    /**
+     * Write a database as the app at fromVersion would have, with ALBUMS
+     * albums of which the second and the last were deleted
+     * @return The IDs of the albums left
+     */
+    private List<Long> createOldDatabase(int fromVersion) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+        try {
+            db.execSQL(AlbumProvider.CREATE_DB_TABLE);
+            AlbumProvider.DatabaseHelper.migrate(db, 1, fromVersion);
+            for (int i = 1; i <= ALBUMS; i++) {
+                db.execSQL("INSERT INTO " + AlbumProvider.TABLE_NAME + " (artist, name) VALUES (?, ?)",
+                        new Object[]{"Artist " + (i % 3), "Album " + i});
+            }
+            db.execSQL("DELETE FROM " + AlbumProvider.TABLE_NAME + " WHERE id IN (2, " + ALBUMS + ")");
+            db.setVersion(fromVersion);
+            return longs(db, "SELECT id FROM " + AlbumProvider.TABLE_NAME + " ORDER BY id");
+        } finally {
+            db.close();
+        }
+    }
+
+    private static List<Long> longs(SQLiteDatabase db, String sql) {
+        List<Long> values = new ArrayList<>();
+        try (Cursor c = db.rawQuery(sql, null)) {
+            while (c.moveToNext()) {
+                values.add(c.getLong(0));
+            }
+        }
+        return values;
+    }
+
+    // Every table, index, view and trigger; ALTER TABLE ... RENAME quotes the new name
+    private static List<String> schema(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<>();
+        try (Cursor c = db.rawQuery("SELECT type, name, sql FROM sqlite_master"
+                + " WHERE name NOT LIKE 'sqlite_%' ORDER BY type, name", null)) {
+            while (c.moveToNext()) {
+                schema.add(c.getString(0) + " " + c.getString(1) + ": "
+                        + c.getString(2).replace("\"" + AlbumProvider.TABLE_NAME + "\"",
+                        AlbumProvider.TABLE_NAME));
+            }
+        }
+        return schema;
+    }
+
+    private static String string(SQLiteDatabase db, String sql) {
+        try (Cursor c = db.rawQuery(sql, null)) {
+            return c.moveToFirst() ? c.getString(0) : null;
+        }
+    }
+
+    private static void assertNoRows(SQLiteDatabase db, String sql) {
+        try (Cursor c = db.rawQuery(sql, null)) {
+            assertFalse(sql, c.moveToFirst());
+        }
+    }
+}
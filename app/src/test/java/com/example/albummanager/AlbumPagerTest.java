@@ -0,0 +1,94 @@
+package com.example.albummanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Looper;
+
+import com.example.albummanager.model.Album;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class AlbumPagerTest {
+    private static final int CATALOG = AlbumPager.PAGE_SIZE * 5 + 3;
+
+    private AlbumManager albumManager;
+    private AlbumPager pager;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(AlbumProvider.class, AlbumProvider.PROVIDER_NAME);
+        albumManager = new AlbumManager(RuntimeEnvironment.getApplication().getContentResolver());
+        List<Album> albums = new ArrayList<>();
+        for (int i = 0; i < CATALOG; i++) {
+            albums.add(new Album("Artist", String.format("Album %04d", i)));
+        }
+        albumManager.addAlbums(albums);
+    }
+
+    @After
+    public void tearDown() {
+        if (pager != null) {
+            pager.close();
+        }
+        albumManager.close();
+    }
+
+    @Test
+    public void constructor_loadsPagesAroundPosition() {
+        pager = new AlbumPager(albumManager.queryAlbums(AlbumManager.QueryOptions.DEFAULT),
+                AlbumPager.PAGE_SIZE * 2);
+
+        assertEquals(CATALOG, pager.getCount());
+        assertEquals("Album 0100", pager.getAlbum(AlbumPager.PAGE_SIZE).getName());
+        assertEquals("Album 0299", pager.getAlbum(AlbumPager.PAGE_SIZE * 3 - 1).getName());
+    }
+
+    @Test
+    public void getAlbum_loadsMissingPageInBackground() throws InterruptedException {
+        pager = new AlbumPager(albumManager.queryAlbums(AlbumManager.QueryOptions.DEFAULT), 0);
+        List<Integer> loaded = new ArrayList<>();
+        pager.setListener((start, count) -> loaded.add(start));
+        int last = CATALOG - 1;
+
+        assertNull(pager.getAlbum(last));
+        for (int i = 0; i < 100 && loaded.isEmpty(); i++) {
+            Thread.sleep(10);
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+
+        assertEquals(Integer.valueOf(AlbumPager.PAGE_SIZE * 5), loaded.get(0));
+        assertNotNull(pager.getAlbum(last));
+        assertEquals("Album 0502", pager.getAlbum(last).getName());
+    }
+
+    @Test
+    public void getId_isKnownBeforeThePageLoads() throws InterruptedException {
+        pager = new AlbumPager(albumManager.queryAlbums(AlbumManager.QueryOptions.DEFAULT), 0);
+        List<Integer> loaded = new ArrayList<>();
+        pager.setListener((start, count) -> loaded.add(start));
+        int last = CATALOG - 1;
+        long id = pager.getId(last);
+
+        assertNull(pager.getAlbum(last));
+        for (int i = 0; i < 100 && loaded.isEmpty(); i++) {
+            Thread.sleep(10);
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+
+        assertEquals(id, pager.getAlbum(last).getId());
+        assertEquals(id, pager.getId(last));
+    }
+}
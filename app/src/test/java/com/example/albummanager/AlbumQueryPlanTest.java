@@ -0,0 +1,162 @@
+package com.example.albummanager;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.albummanager.model.AlbumCursorMapper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Checks with EXPLAIN QUERY PLAN that each query AlbumManager sends to
+ * AlbumProvider is served by the intended index. The selections and sort
+ * orders mirror the ones used in AlbumManager. Runs on the JVM against
+ * Robolectric's SQLite, so a plan regression fails the unit tests.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AlbumQueryPlanTest {
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        db = SQLiteDatabase.create(null);
+        AlbumProvider.DatabaseHelper.createSchema(db);
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void getAllAlbums_readsInIdOrderWithoutSorting() {
+        String plan = explainAlbums(AlbumProvider.CONTENT_URI, null, null, null);
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void getAlbumsPage_usesPrimaryKeyRange() {
+        Uri page = AlbumProvider.CONTENT_URI.buildUpon()
+                .appendQueryParameter(AlbumProvider.QUERY_AFTER_ID, "1000")
+                .appendQueryParameter(AlbumProvider.QUERY_LIMIT, "50")
+                .build();
+        String plan = explainAlbums(page, null, null, null);
+        assertTrue(plan, plan.contains("INTEGER PRIMARY KEY"));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void getAlbumById_usesPrimaryKey() {
+        String plan = explain(AlbumProvider.SELECT_ALBUM_BY_ID, new String[]{"1"});
+        assertTrue(plan, plan.contains("INTEGER PRIMARY KEY"));
+    }
+
+    @Test
+    public void updateAndDeleteById_usePrimaryKey() {
+        String plan = explain(AlbumProvider.UPDATE_ALBUM_BY_ID, new String[]{"1", "name", "1"});
+        assertTrue(plan, plan.contains("INTEGER PRIMARY KEY"));
+        plan = explain(AlbumProvider.DELETE_ALBUM_BY_ID, new String[]{"1"});
+        assertTrue(plan, plan.contains("INTEGER PRIMARY KEY"));
+    }
+
+    @Test
+    public void searchAlbumsByArtist_scansWithoutSorting() {
+        // LIKE '%term%' cannot use an index; search() is the indexed alternative
+        String plan = explainAlbums(AlbumProvider.CONTENT_URI, "artist LIKE ?",
+                new String[]{"%beatles%"}, null);
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void searchAlbumsByName_scansWithoutSorting() {
+        String plan = explainAlbums(AlbumProvider.CONTENT_URI, "name LIKE ?",
+                new String[]{"%abbey%"}, null);
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void search_usesFullTextIndex() {
+        String plan = explain(AlbumProvider.SEARCH_ALBUMS + 50,
+                new String[]{"abbey*", "abbey%", "abbey%"});
+        assertTrue(plan, plan.contains("VIRTUAL TABLE"));
+        assertTrue(plan, plan.contains("INTEGER PRIMARY KEY"));
+    }
+
+    @Test
+    public void artistFilter_looksUpArtistThenItsAlbums() {
+        String plan = explainAlbums(AlbumProvider.CONTENT_URI, "artist=?",
+                new String[]{"The Beatles"}, null);
+        assertTrue(plan, plan.contains("INDEX sqlite_autoindex_" + AlbumProvider.ARTISTS_TABLE_NAME));
+        assertTrue(plan, plan.contains("INDEX " + AlbumProvider.TABLE_NAME + "_artist_id"));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void artistFilterIgnoringCase_usesNocaseIndex() {
+        String plan = explainAlbums(AlbumProvider.CONTENT_URI, "artist=? COLLATE NOCASE",
+                new String[]{"the beatles"}, null);
+        assertTrue(plan, plan.contains("INDEX " + AlbumProvider.ARTISTS_TABLE_NAME + "_name_nocase"));
+        assertTrue(plan, plan.contains("INDEX " + AlbumProvider.TABLE_NAME + "_artist_id"));
+    }
+
+    @Test
+    public void getAlbumsByArtist_usesArtistIdIndex() {
+        String plan = explainAlbums(AlbumProvider.CONTENT_URI, "artist_id=?",
+                new String[]{"1"}, null);
+        assertTrue(plan, plan.contains("INDEX " + AlbumProvider.TABLE_NAME + "_artist_id"));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void sortByName_usesNameIndex() {
+        String plan = explainAlbums(AlbumProvider.CONTENT_URI, null, null, "name COLLATE NOCASE");
+        assertTrue(plan, plan.contains("INDEX " + AlbumProvider.TABLE_NAME + "_name_nocase"));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void getArtistSummaries_groupsOverArtistIdIndex() {
+        String plan = explain(AlbumProvider.buildArtistSummariesQuery(null, null, null), null);
+        assertTrue(plan, plan.contains("COVERING INDEX " + AlbumProvider.TABLE_NAME + "_artist_id"));
+    }
+
+    @Test
+    public void getChangesSince_readsLogRangeAndLooksUpAlbumsByKey() {
+        String plan = explain(AlbumProvider.SELECT_CHANGES_SINCE, new String[]{"1000", "1100"});
+        assertTrue(plan, plan.contains(AlbumProvider.CHANGES_TABLE_NAME
+                + " USING INTEGER PRIMARY KEY (rowid>? AND rowid<?)"));
+        assertFalse(plan, plan.contains("SCAN a"));
+        assertFalse(plan, plan.contains("SCAN r"));
+
+        plan = explain(AlbumProvider.SELECT_CHANGE_PAGE_END, new String[]{"1000", "99"});
+        assertTrue(plan, plan.contains(AlbumProvider.CHANGES_TABLE_NAME
+                + " USING INTEGER PRIMARY KEY (rowid>?)"));
+    }
+
+    private String explainAlbums(Uri uri, String selection, String[] selectionArgs,
+                                 String sortOrder) {
+        String sql = AlbumProvider.buildAlbumsQuery(uri, AlbumCursorMapper.PROJECTION,
+                selection, sortOrder);
+        return explain(sql, selectionArgs);
+    }
+
+    // Concatenate the detail column of every plan row
+    private String explain(String sql, String[] args) {
+        StringBuilder plan = new StringBuilder();
+        try (Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args)) {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append('\n');
+            }
+        }
+        return plan.toString();
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.albummanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.example.albummanager.model.Album;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class AlbumReplicaTest {
+    private AlbumManager albumManager;
+    private AlbumReplica replica;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(AlbumProvider.class, AlbumProvider.PROVIDER_NAME);
+        albumManager = new AlbumManager(RuntimeEnvironment.getApplication().getContentResolver());
+        replica = new AlbumReplica(albumManager);
+    }
+
+    @After
+    public void tearDown() {
+        replica.close();
+        albumManager.close();
+    }
+
+    @Test
+    public void sync_loadsThenAppliesChangesInIdOrder() {
+        long first = albumManager.addAlbum("Artist 1", "Album 1");
+        long second = albumManager.addAlbum("Artist 2", "Album 2");
+        AlbumReplica.Snapshot loaded = replica.sync();
+        assertEquals(2, loaded.size());
+
+        albumManager.deleteAlbum(first);
+        albumManager.updateAlbum(new Album(second, "Artist 2", "Renamed"));
+        long third = albumManager.addAlbum("Artist 3", "Album 3");
+        AlbumReplica.Snapshot updated = replica.sync();
+
+        assertMatchesProvider(updated);
+        assertNull(updated.find(first));
+        assertEquals("Renamed", updated.find(second).getName());
+        assertEquals(third, updated.get(1).getId());
+        // Earlier snapshots are never changed
+        assertEquals(2, loaded.size());
+        assertEquals("Album 1", loaded.find(first).getName());
+    }
+
+    private void assertMatchesProvider(AlbumReplica.Snapshot snapshot) {
+        List<Album> expected = albumManager.getAllAlbums();
+        assertEquals(expected.size(), snapshot.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getId(), snapshot.get(i).getId());
+            assertEquals(expected.get(i).getArtist(), snapshot.get(i).getArtist());
+            assertEquals(expected.get(i).getName(), snapshot.get(i).getName());
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.albummanager;
+
+import static org.junit.Assert.assertEquals;
+
+import com.example.albummanager.model.Album;
+import com.example.albummanager.model.AlbumTable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class AlbumTableTest {
+    private AlbumManager albumManager;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(AlbumProvider.class, AlbumProvider.PROVIDER_NAME);
+        albumManager = new AlbumManager(RuntimeEnvironment.getApplication().getContentResolver());
+        String[] artists = {"beta", "Alpha", "alpha", "\u00c9mile", "B"};
+        List<Album> albums = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            albums.add(new Album(artists[i % artists.length],
+                    (i % 3 == 0 ? "x" : "X") + (i * 37 % 11) + (i % 2 == 0 ? "\u00e9" : "")));
+        }
+        albumManager.addAlbums(albums);
+    }
+
+    @After
+    public void tearDown() {
+        albumManager.close();
+    }
+
+    @Test
+    public void getAlbumTable_matchesGetAlbums() {
+        for (AlbumManager.QueryOptions.Sort sort : AlbumManager.QueryOptions.Sort.values()) {
+            AlbumManager.QueryOptions options = new AlbumManager.QueryOptions(sort, null);
+            assertMatches(albumManager.getAlbums(options), albumManager.getAlbumTable(options));
+        }
+    }
+
+    @Test
+    public void sortedBy_matchesProviderOrder() {
+        AlbumTable table = albumManager.getAlbumTable(AlbumManager.QueryOptions.DEFAULT);
+
+        assertMatches(albumManager.getAlbums(options(AlbumManager.QueryOptions.Sort.ARTIST)),
+                table.sortedBy(AlbumTable.Column.ARTIST));
+        assertMatches(albumManager.getAlbums(options(AlbumManager.QueryOptions.Sort.NAME)),
+                table.sortedBy(AlbumTable.Column.NAME));
+        assertMatches(albumManager.getAlbums(AlbumManager.QueryOptions.DEFAULT),
+                table.sortedBy(AlbumTable.Column.NAME).sortedBy(AlbumTable.Column.ID));
+        assertEquals(5, table.getArtistCount());
+    }
+
+    @Test
+    public void indexOf_findsRowsInAnyOrder() {
+        AlbumTable table = albumManager.getAlbumTable(options(AlbumManager.QueryOptions.Sort.NAME));
+
+        for (Album album : albumManager.getAllAlbums()) {
+            int index = table.indexOf(album.getId());
+            assertEquals(album.getName(), table.getName(index));
+        }
+        assertEquals(-1, table.indexOf(0));
+    }
+
+    @Test
+    public void builder_growsPastItsCapacityAndNameBuffer() {
+        AlbumTable.Builder builder = new AlbumTable.Builder(1);
+        List<Album> albums = new ArrayList<>();
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            // Names up to a few hundred bytes, some of them multi-byte
+            name.append(i % 7 == 0 ? '\u00e9' : 'x');
+            Album album = new Album(i + 1, "Artist " + (i % 3), name.toString());
+            albums.add(album);
+            builder.add(album);
+        }
+
+        assertMatches(albums, builder.build());
+    }
+
+    @Test
+    public void sortedByArtist_ordersArtistsEqualIgnoringCaseByName() {
+        AlbumTable table = new AlbumTable.Builder(3)
+                .add(1, 1, "Alpha", "b")
+                .add(2, 2, "alpha", "a")
+                .add(3, 1, "Alpha", "c")
+                .build();
+
+        AlbumTable sorted = table.sortedBy(AlbumTable.Column.ARTIST);
+
+        assertEquals(2, sorted.getId(0));
+        assertEquals(1, sorted.getId(1));
+        assertEquals(3, sorted.getId(2));
+    }
+
+    @Test
+    public void copyName_copiesEncodedName() {
+        AlbumTable table = new AlbumTable.Builder(1).add(1, 1, "Artist", "Caf\u00e9").build();
+        byte[] buffer = new byte[table.nameLength(0)];
+
+        assertEquals(5, table.copyName(0, buffer));
+        assertEquals("Caf\u00e9", new String(buffer, StandardCharsets.UTF_8));
+    }
+
+    private static AlbumManager.QueryOptions options(AlbumManager.QueryOptions.Sort sort) {
+        return new AlbumManager.QueryOptions(sort, null);
+    }
+
+    private static void assertMatches(List<Album> expected, AlbumTable table) {
+        assertEquals(expected.size(), table.size());
+        Album row = new Album();
+        for (int i = 0; i < expected.size(); i++) {
+            table.fill(i, row);
+            assertEquals(expected.get(i).getId(), row.getId());
+            assertEquals(expected.get(i).getArtistId(), row.getArtistId());
+            assertEquals(expected.get(i).getArtist(), row.getArtist());
+            assertEquals(expected.get(i).getName(), row.getName());
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.albummanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.database.Cursor;
+import android.os.Looper;
+
+import com.example.albummanager.model.Album;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+public class AsyncAlbumManagerTest {
+    private RecordingAlbumManager albumManager;
+    private AsyncAlbumManager asyncAlbumManager;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(AlbumProvider.class, AlbumProvider.PROVIDER_NAME);
+        albumManager = new RecordingAlbumManager();
+        albumManager.addAlbum("Artist", "Album");
+        asyncAlbumManager = new AsyncAlbumManager(albumManager);
+    }
+
+    @After
+    public void tearDown() {
+        asyncAlbumManager.shutdown();
+        albumManager.close();
+    }
+
+    @Test
+    public void newerLoad_supersedesQueuedLoad() throws Exception {
+        List<String> delivered = new ArrayList<>();
+        CountDownLatch gate = blockExecutor();
+        asyncAlbumManager.getAllAlbums(albums -> delivered.add("first"));
+        Future<?> second = asyncAlbumManager.getAllAlbums(albums -> delivered.add("second"));
+
+        gate.countDown();
+        second.get(5, TimeUnit.SECONDS);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertEquals(Collections.singletonList("second"), delivered);
+    }
+
+    @Test
+    public void supersededResult_isDiscarded() throws Exception {
+        List<Cursor> delivered = new ArrayList<>();
+        asyncAlbumManager.queryAlbums(AlbumManager.QueryOptions.DEFAULT, delivered::add);
+        // The executor runs one task at a time, so once this one finishes the
+        // first query has finished and posted its delivery
+        asyncAlbumManager.getAlbumById(0, album -> { }).get(5, TimeUnit.SECONDS);
+        Future<?> second = asyncAlbumManager.queryAlbums(AlbumManager.QueryOptions.DEFAULT,
+                delivered::add);
+        second.get(5, TimeUnit.SECONDS);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertEquals(2, albumManager.cursors.size());
+        assertTrue(albumManager.cursors.get(0).isClosed());
+        assertEquals(Collections.singletonList(albumManager.cursors.get(1)), delivered);
+        delivered.get(0).close();
+    }
+
+    @Test
+    public void shutdown_discardsPostedResults() throws Exception {
+        List<Cursor> delivered = new ArrayList<>();
+        asyncAlbumManager.queryAlbums(AlbumManager.QueryOptions.DEFAULT, delivered::add);
+        asyncAlbumManager.getAlbumById(0, album -> { }).get(5, TimeUnit.SECONDS);
+
+        asyncAlbumManager.shutdown();
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertTrue(delivered.isEmpty());
+        assertEquals(1, albumManager.cursors.size());
+        assertTrue(albumManager.cursors.get(0).isClosed());
+    }
+
+    // Occupy the executor's thread until the returned latch is released
+    private CountDownLatch blockExecutor() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch gate = new CountDownLatch(1);
+        albumManager.blockNextGetById(started, gate);
+        asyncAlbumManager.getAlbumById(0, album -> { });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return gate;
+    }
+
+    private static class RecordingAlbumManager extends AlbumManager {
+        final List<Cursor> cursors = Collections.synchronizedList(new ArrayList<>());
+        private volatile CountDownLatch started;
+        private volatile CountDownLatch gate;
+
+        RecordingAlbumManager() {
+            super(RuntimeEnvironment.getApplication().getContentResolver());
+        }
+
+        void blockNextGetById(CountDownLatch started, CountDownLatch gate) {
+            this.started = started;
+            this.gate = gate;
+        }
+
+        @Override
+        public Cursor queryAlbums(QueryOptions options) {
+            Cursor cursor = super.queryAlbums(options);
+            cursors.add(cursor);
+            return cursor;
+        }
+
+        @Override
+        public Album getAlbumById(long id) {
+            CountDownLatch gate = this.gate;
+            if (gate != null) {
+                this.gate = null;
+                started.countDown();
+                try {
+                    gate.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.getAlbumById(id);
+        }
+    }
+}
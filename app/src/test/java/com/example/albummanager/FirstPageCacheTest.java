@@ -0,0 +1,63 @@
+package com.example.albummanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.albummanager.model.Album;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class FirstPageCacheTest {
+    private FirstPageCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new FirstPageCache(RuntimeEnvironment.getApplication());
+    }
+
+    @Test
+    public void read_withoutWrite_isEmpty() {
+        assertTrue(cache.read().isEmpty());
+    }
+
+    @Test
+    public void write_keepsFirstRowsInOrder() {
+        List<Album> albums = new ArrayList<>();
+        for (int i = 1; i <= FirstPageCache.ROWS + 10; i++) {
+            albums.add(new Album(i * 3, "Artist " + (i % 4), "Album " + i));
+        }
+
+        cache.write(albums);
+        List<Album> read = cache.read();
+
+        assertEquals(FirstPageCache.ROWS, read.size());
+        for (int i = 0; i < read.size(); i++) {
+            assertEquals(albums.get(i).getId(), read.get(i).getId());
+            assertEquals(albums.get(i).getArtist(), read.get(i).getArtist());
+            assertEquals(albums.get(i).getName(), read.get(i).getName());
+        }
+    }
+
+    @Test
+    public void read_unreadableFile_isEmpty() throws IOException {
+        File file = new File(RuntimeEnvironment.getApplication().getCacheDir(), "first_page.albm");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[]{1, 2, 3});
+        }
+
+        assertTrue(cache.read().isEmpty());
+        assertFalse(file.exists());
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.albummanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+
+@RunWith(RobolectricTestRunner.class)
+public class StorageProfileTest {
+    private static final String DATABASE_NAME = "StorageProfileTest.db";
+    private static final StorageProfile LARGE_PAGES =
+            new StorageProfile("large-pages", false, 8192, 0, StorageProfile.SYNCHRONOUS_FULL);
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        File path = context.getDatabasePath(DATABASE_NAME);
+        path.getParentFile().mkdirs();
+        SQLiteDatabase.deleteDatabase(path);
+    }
+
+    @Test
+    public void forName_findsPresets() {
+        assertSame(StorageProfile.DEFAULT, StorageProfile.forName("default"));
+        assertSame(StorageProfile.DURABLE, StorageProfile.forName("durable"));
+        assertSame(StorageProfile.LEGACY, StorageProfile.forName("legacy"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void forName_rejectsUnknownName() {
+        StorageProfile.forName("fast");
+    }
+
+    @Test
+    public void configuredProfile_isAPreset() {
+        StorageProfile.forName(context.getString(R.string.storage_profile));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsPageSizeWithWriteAheadLogging() {
+        new StorageProfile("wal-pages", true, 8192, 0, StorageProfile.SYNCHRONOUS_NORMAL);
+    }
+
+    @Test
+    public void pageSize_appliesToNewDatabaseOnly() {
+        assertEquals(8192, pageSize(LARGE_PAGES));
+        // Reopening with another page size leaves the existing pages alone
+        assertEquals(8192, pageSize(new StorageProfile("larger-pages", false, 16384, 0,
+                StorageProfile.SYNCHRONOUS_FULL)));
+    }
+
+    private long pageSize(StorageProfile profile) {
+        AlbumProvider.DatabaseHelper helper =
+                new AlbumProvider.DatabaseHelper(context, DATABASE_NAME, profile);
+        try {
+            return helper.getWritableDatabase().getPageSize();
+        } finally {
+            helper.close();
+        }
+    }
+}